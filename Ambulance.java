@@ -1,63 +1,106 @@
-import java.time.LocalDateTime;
-
+// Handle on one unit's slot in a FleetTable, where its state, timestamps and position live.
+// The state word packs the trip generation with the AmbulanceState: every change is one CAS
+// checked against the allowed moves, and the generation is bumped whenever a new trip starts
+// or a person takes over, so scheduled lifecycle events of an older trip do nothing.
 public class Ambulance {
     String ambulanceId;
-    private boolean available;
-    private LocalDateTime dispatchTime;
-    private LocalDateTime arrivalTime;
-    private String status; // Added status field based on the state diagram
+    Hospital home; // Hospital whose free units this ambulance counts towards
+    FleetTable fleet; // Changes only when its hospital joins a HospitalBST, before dispatching starts
+    int slot;
 
+    // A unit without a hospital, in a table of its own
     public Ambulance(String ambulanceId) {
+        this(ambulanceId, null);
+        FleetTable own = new FleetTable();
+        own.place(this, own.addHospital());
+    }
+
+    // Not usable until FleetTable.place gives it a slot
+    Ambulance(String ambulanceId, Hospital home) {
         this.ambulanceId = ambulanceId;
-        this.available = true;
-        this.status = "Available"; // Initial status
+        this.home = home;
     }
 
     public boolean isAvailable() {
-        return available;
+        return fleet.isAvailable(slot);
     }
 
-    public void setAvailable(boolean available) {
-        this.available = available;
-        if (available) {
-            this.status = "Available";
-        }
+    AmbulanceState state() {
+        return FleetTable.state(fleet.stateWord(slot));
     }
 
-    public String getStatus() {
-        return status;
+    int generation() {
+        return FleetTable.generation(fleet.stateWord(slot));
     }
 
-    public void setStatus(String status) {
-        this.status = status;
+    // Atomically claims the ambulance; only one caller can win while it is available
+    public boolean tryAcquire() {
+        return fleet.tryAcquire(slot);
     }
 
-    public LocalDateTime getDispatchTime() {
-        return dispatchTime;
+    // Starts a new trip in the given state, or takes the unit over by hand; pending events of
+    // the previous trip are dropped. Returns the new generation, or -1 if the move is not allowed.
+    int transition(AmbulanceState to) {
+        return fleet.transition(slot, to);
     }
 
-    public void setDispatchTime(LocalDateTime dispatchTime) {
-        this.dispatchTime = dispatchTime;
-        if (dispatchTime != null) {
-            this.status = "Dispatched";
-        }
+    // Next step of the trip with this generation; false if the trip was replaced or the move is not allowed
+    boolean advance(int generation, AmbulanceState to) {
+        return fleet.advance(slot, generation, to);
     }
 
-    public LocalDateTime getArrivalTime() {
-        return arrivalTime;
+    // Back in service from any state, e.g. when an operator clears a unit
+    boolean release() {
+        return isAvailable() || transition(AmbulanceState.AVAILABLE) != -1;
     }
 
-    public void setArrivalTime(LocalDateTime arrivalTime) {
-        this.arrivalTime = arrivalTime;
-        if (arrivalTime != null) {
-            this.status = "AtHospital"; // Assuming arrival at hospital signifies this for now
+    // Reports where the unit is now, e.g. from a GPS fix
+    void setPosition(double latitude, double longitude) {
+        fleet.setPosition(slot, latitude, longitude);
+    }
+
+    boolean hasPosition() {
+        return fleet.position(slot) != FleetTable.NO_POSITION;
+    }
+
+    // Road graph node the unit would start from: the node nearest its last position, else its home hospital
+    int node(RoadGraph graph) {
+        long at = fleet.position(slot); // Read once, so latitude and longitude are from the same fix
+        if (at != FleetTable.NO_POSITION && graph.hasCoordinates()) {
+            int node = graph.nearestNode(FleetTable.latitude(at), FleetTable.longitude(at));
+            if (node != -1) {
+                return node;
+            }
         }
+        return home == null ? -1 : graph.id(home.getName());
+    }
+
+    public String getStatus() {
+        return state().label;
+    }
+
+    public long getDispatchNanos() {
+        return fleet.dispatchNanos(slot);
+    }
+
+    public void setDispatchNanos(long epochNanos) {
+        fleet.setDispatchNanos(slot, epochNanos);
+    }
+
+    public long getArrivalNanos() {
+        return fleet.arrivalNanos(slot);
+    }
+
+    public void setArrivalNanos(long epochNanos) {
+        fleet.setArrivalNanos(slot, epochNanos);
     }
 
     @Override
     public String toString() {
-        return "ID: " + ambulanceId + ", Status: " + status +
-                (dispatchTime != null ? ", Dispatched at: " + dispatchTime.format(java.time.format.DateTimeFormatter.ISO_LOCAL_TIME) : "") +
-                (arrivalTime != null ? ", Arrived at: " + arrivalTime.format(java.time.format.DateTimeFormatter.ISO_LOCAL_TIME) : "");
+        long dispatched = getDispatchNanos();
+        long arrived = getArrivalNanos();
+        return "ID: " + ambulanceId + ", Status: " + getStatus() +
+                (dispatched != 0 ? ", Dispatched at: " + AmbulanceLifecycle.formatTime(dispatched) : "") +
+                (arrived != 0 ? ", Arrived at: " + AmbulanceLifecycle.formatTime(arrived) : "");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,255 @@
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Event-driven ambulance lifecycle. Each state change (EnRoute -> AtScene ->
+// TransportingPatient -> AtHospital -> Available) is a scheduled event, so the caller
+// returns immediately and any number of ambulances can be in flight at once.
+// Events run on a single scheduler thread, or on a simulated clock that tests and
+// load runs advance by hand.
+public class AmbulanceLifecycle {
+    static final long DEFAULT_LEG_MILLIS = 5000; // Simulated travel time per leg
+
+    // Where events are queued and what "now" means
+    interface Scheduler {
+        long nowMillis();
+
+        void schedule(Runnable task, long delayMillis);
+
+        void shutdown();
+    }
+
+    private final Scheduler scheduler;
+    private final long legMillis;
+    private final boolean verbose;
+
+    public AmbulanceLifecycle(Scheduler scheduler, long legMillis, boolean verbose) {
+        this.scheduler = scheduler;
+        this.legMillis = legMillis;
+        this.verbose = verbose;
+    }
+
+    // Wall-clock lifecycle used by the console
+    static AmbulanceLifecycle realTime() {
+        return new AmbulanceLifecycle(new RealTimeScheduler(), DEFAULT_LEG_MILLIS, true);
+    }
+
+    // Lifecycle on a manual clock; call advance() to move time forward
+    static AmbulanceLifecycle simulated(SimulatedScheduler scheduler, long legMillis) {
+        return new AmbulanceLifecycle(scheduler, legMillis, false);
+    }
+
+    LocalDateTime now() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(scheduler.nowMillis()), ZoneId.systemDefault());
+    }
+
+    Scheduler scheduler() {
+        return scheduler;
+    }
+
+    // Current time as epoch nanos, the form Ambulance keeps its timestamps in
+    long nowNanos() {
+        return scheduler.nowMillis() * 1_000_000L;
+    }
+
+    static String formatTime(long epochNanos) {
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(0, epochNanos), ZoneId.systemDefault())
+                .format(DateTimeFormatter.ISO_LOCAL_TIME);
+    }
+
+    // Sends an ambulance through a full call: scene, patient pickup, hospital, back to service.
+    // Returns the trip's generation, or -1 if the unit could not leave.
+    int dispatch(Ambulance ambulance) {
+        return dispatch(ambulance, null);
+    }
+
+    // Same, running onScene once the ambulance reaches the patient
+    int dispatch(Ambulance ambulance, Runnable onScene) {
+        return dispatch(ambulance, onScene, null);
+    }
+
+    // Same, also running onHandover once the patient has been brought in to the hospital.
+    // Neither runs if the trip is cancelled or the unit is released before that point.
+    int dispatch(Ambulance ambulance, Runnable onScene, Runnable onHandover) {
+        int trip = ambulance.transition(AmbulanceState.EN_ROUTE);
+        if (trip == -1) {
+            log("Ambulance " + ambulance.ambulanceId + " cannot leave while " + ambulance.getStatus() + ".");
+            return -1;
+        }
+        log("Ambulance " + ambulance.ambulanceId + " leaves station.");
+        log("Status: " + ambulance.getStatus());
+        schedule(ambulance, trip, AmbulanceState.AT_SCENE, () -> {
+            log("Ambulance " + ambulance.ambulanceId + " arrives at scene.");
+            if (onScene != null) {
+                onScene.run();
+            }
+            schedule(ambulance, trip, AmbulanceState.TRANSPORTING_PATIENT, () -> {
+                log("Ambulance " + ambulance.ambulanceId + " patient onboard.");
+                schedule(ambulance, trip, AmbulanceState.AT_HOSPITAL, () -> {
+                    if (onHandover != null) {
+                        onHandover.run();
+                    }
+                    arriveAtHospital(ambulance, trip);
+                });
+            });
+        });
+        return trip;
+    }
+
+    // Moves an ambulance to another hospital and returns it to service there
+    void transfer(Ambulance ambulance, Hospital destination) {
+        int trip = ambulance.transition(AmbulanceState.EN_ROUTE);
+        if (trip == -1) {
+            log("Ambulance " + ambulance.ambulanceId + " cannot leave while " + ambulance.getStatus() + ".");
+            return;
+        }
+        log("Simulating transfer to " + destination.getName() + "...");
+        log("Status: " + ambulance.getStatus());
+        schedule(ambulance, trip, AmbulanceState.AT_HOSPITAL, () -> {
+            log("Ambulance arrived at " + destination.getName() + ".");
+            if (ambulance.advance(trip, AmbulanceState.AVAILABLE)) {
+                log("Ambulance " + ambulance.ambulanceId + " available again. Status: " + ambulance.getStatus());
+            }
+        });
+    }
+
+    // Stops an ambulance on its way to a scene so it can take another call: it goes back to
+    // Dispatched and the pending events of the trip can no longer move it. False if it is no
+    // longer en route on that trip, e.g. it reached the scene or was taken over by hand.
+    boolean cancel(Ambulance ambulance, int trip) {
+        return ambulance.advance(trip, AmbulanceState.DISPATCHED);
+    }
+
+    // Schedules the next leg of a trip: moves the ambulance to `to` and runs `leg`, unless the
+    // trip was cancelled or replaced meanwhile
+    private void schedule(Ambulance ambulance, int trip, AmbulanceState to, Runnable leg) {
+        scheduler.schedule(() -> {
+            if (ambulance.advance(trip, to)) {
+                log("Status: " + ambulance.getStatus());
+                leg.run();
+            }
+        }, legMillis);
+    }
+
+    private void arriveAtHospital(Ambulance ambulance, int trip) {
+        long arrival = nowNanos();
+        ambulance.setArrivalNanos(arrival);
+        log("Ambulance " + ambulance.ambulanceId + " arrives at hospital at: " + formatTime(arrival));
+        long dispatched = ambulance.getDispatchNanos();
+        if (dispatched != 0) {
+            Duration timeTaken = Duration.ofNanos(arrival - dispatched);
+            log("Time taken: " + timeTaken.toMinutes() + " minutes and " + (timeTaken.getSeconds() % 60) + " seconds.");
+        }
+
+        ambulance.setDispatchNanos(0);
+        ambulance.setArrivalNanos(0);
+        if (ambulance.advance(trip, AmbulanceState.AVAILABLE)) {
+            log("Ambulance " + ambulance.ambulanceId + " returns to base (simulated). Status: " + ambulance.getStatus());
+        }
+    }
+
+    private void log(String message) {
+        if (verbose) {
+            System.out.println(message);
+        }
+    }
+
+    void shutdown() {
+        scheduler.shutdown();
+    }
+
+    // Runs events on one daemon thread so a pending event never keeps the JVM alive
+    static class RealTimeScheduler implements Scheduler {
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ambulance-lifecycle");
+            t.setDaemon(true);
+            return t;
+        });
+
+        @Override
+        public long nowMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void shutdown() {
+            executor.shutdownNow();
+        }
+    }
+
+    // Deterministic clock: events fire only when advance() moves time past them,
+    // in due-time order and FIFO among events due at the same instant
+    static class SimulatedScheduler implements Scheduler {
+        private static class Event {
+            final long due;
+            final long seq;
+            final Runnable task;
+
+            Event(long due, long seq, Runnable task) {
+                this.due = due;
+                this.seq = seq;
+                this.task = task;
+            }
+        }
+
+        private final PriorityQueue<Event> events = new PriorityQueue<>((a, b) ->
+                a.due != b.due ? Long.compare(a.due, b.due) : Long.compare(a.seq, b.seq));
+        private long now;
+        private long seq;
+
+        public SimulatedScheduler(long startMillis) {
+            this.now = startMillis;
+        }
+
+        @Override
+        public synchronized long nowMillis() {
+            return now;
+        }
+
+        @Override
+        public synchronized void schedule(Runnable task, long delayMillis) {
+            events.add(new Event(now + Math.max(0, delayMillis), seq++, task));
+        }
+
+        // Moves the clock forward, running every event that falls due on the way
+        void advance(long millis) {
+            long target;
+            synchronized (this) {
+                target = now + millis;
+            }
+            while (true) {
+                Event next;
+                synchronized (this) {
+                    next = events.peek();
+                    if (next == null || next.due > target) {
+                        now = target;
+                        return;
+                    }
+                    events.poll();
+                    now = next.due;
+                }
+                next.task.run(); // may schedule follow-up events
+            }
+        }
+
+        synchronized int pendingEvents() {
+            return events.size();
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            events.clear();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+// Where an ambulance is in its call cycle, and which moves out of each state are allowed.
+// Ambulance packs the state together with a trip generation into one long, see Ambulance.
+public enum AmbulanceState {
+    AVAILABLE("Available"),
+    DISPATCHED("Dispatched"),
+    TRANSFERRING("Transferring"),
+    EN_ROUTE("EnRoute"),
+    AT_SCENE("AtScene"),
+    TRANSPORTING_PATIENT("TransportingPatient"),
+    AT_HOSPITAL("AtHospital"),
+    RETURNING("Returning");
+
+    private static final AmbulanceState[] VALUES = values();
+
+    static {
+        // Any unit that is out can be put back in service by hand
+        for (AmbulanceState state : VALUES) {
+            if (state != AVAILABLE) {
+                state.allow(AVAILABLE);
+            }
+        }
+        AVAILABLE.allow(DISPATCHED, TRANSFERRING);
+        DISPATCHED.allow(EN_ROUTE, TRANSFERRING);
+        TRANSFERRING.allow(EN_ROUTE);
+        EN_ROUTE.allow(AT_SCENE, AT_HOSPITAL, RETURNING, DISPATCHED); // DISPATCHED: re-routed to a more urgent call
+        AT_SCENE.allow(TRANSPORTING_PATIENT, RETURNING);
+        TRANSPORTING_PATIENT.allow(AT_HOSPITAL);
+        AT_HOSPITAL.allow(RETURNING);
+    }
+
+    final String label; // as shown in the console and recorded in the journal
+    private int next;   // bit per state reachable from this one
+
+    AmbulanceState(String label) {
+        this.label = label;
+    }
+
+    private void allow(AmbulanceState... targets) {
+        for (AmbulanceState target : targets) {
+            next |= 1 << target.ordinal();
+        }
+    }
+
+    boolean canMoveTo(AmbulanceState target) {
+        return (next & 1 << target.ordinal()) != 0;
+    }
+
+    static AmbulanceState of(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    // Matches a label ("EnRoute") or constant name ("EN_ROUTE"), ignoring case; null if none
+    static AmbulanceState parse(String text) {
+        String key = text == null ? "" : text.trim();
+        for (AmbulanceState state : VALUES) {
+            if (state.label.equalsIgnoreCase(key) || state.name().equalsIgnoreCase(key)) {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
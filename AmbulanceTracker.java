@@ -1,192 +1,59 @@
 import java.util.*;
-import java.time.LocalDateTime;
-import java.time.Duration;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Paths;
 
+// Console client of a DispatchService: reads menu choices and prints results. All dispatch
+// state lives in the service; this class only holds the operator's session.
 public class AmbulanceTracker {
 
-    // Enums and Constants
-    enum UserRole {
-        DISPATCHER,
-        ADMIN,
-        HOSPITAL_STAFF
-    }
-
-    static final String TRANSFER_REQUEST = "TRANSFER_REQUEST";
+    static final String JOURNAL_FILE = "dispatch-journal.bin";
 
-    // Data Structures
-    static List<Map<String, Object>> requestHistory = new ArrayList<>();
-    static HospitalBST hospitalTree = new HospitalBST();
     static Scanner sc = new Scanner(System.in);
-    static Map<String, String> assignedAmbulances = new HashMap<>(); // Track assigned ambulances
-    static UserRole currentUserRole = UserRole.DISPATCHER; // Default role
 
     // Method to find shortest routes using Dijkstra's Algorithm
     static Map<String, Integer> findShortestRoutes(String source, Map<String, Map<String, Integer>> graph) {
-        Map<String, Integer> distances = new HashMap<>();
-        Set<String> visited = new HashSet<>();
-        PriorityQueue<Pair<String, Integer>> pq = new PriorityQueue<>(Comparator.comparingInt(Pair::getValue));
-
-        // Initialize distances
-        for (String node : graph.keySet()) {
-            distances.put(node, Integer.MAX_VALUE);
-        }
-        distances.put(source, 0);
-        pq.offer(new Pair<>(source, 0));
-
-        // Dijkstra's algorithm
-        while (!pq.isEmpty()) {
-            Pair<String, Integer> current = pq.poll();
-            String u = current.getKey();
-            int distU = current.getValue();
-
-            if (visited.contains(u))
-                continue;
-            visited.add(u);
-
-            if (distU > distances.get(u))
-                continue;
-
-            // Iterate through neighbors
-            if (graph.containsKey(u)) { // Check if the node exists in the graph
-                for (Map.Entry<String, Integer> neighbor : graph.get(u).entrySet()) {
-                    String v = neighbor.getKey();
-                    int weightUV = neighbor.getValue();
-                    int distV = distU + weightUV;
-
-                    if (distV < distances.getOrDefault(v, Integer.MAX_VALUE)) {
-                        distances.put(v, distV);
-                        pq.offer(new Pair<>(v, distV));
-                    }
-                }
-            }
-        }
-
-        // Debugging output to diagnose distances
-        System.out.println("Distances from " + source + ":");
-        for (Map.Entry<String, Integer> entry : distances.entrySet()) {
-            System.out.println("  " + entry.getKey() + ": " + (entry.getValue() == Integer.MAX_VALUE ? "∞" : entry.getValue()));
-        }
-
-        return distances;
+        return findShortestRoutes(source, RoadGraph.compile(graph));
     }
 
-    // Pair class for storing node and distance
-    static class Pair<K, V> {
-        private final K key;
-        private final V value;
-
-        public Pair(K key, V value) {
-            this.key = key;
-            this.value = value;
-        }
-
-        public K getKey() {
-            return key;
-        }
-
-        public V getValue() {
-            return value;
-        }
+    // Same as above on the compiled graph; repeat sources are served from the graph's distance cache
+    static Map<String, Integer> findShortestRoutes(String source, RoadGraph graph) {
+        int[] dist = graph.distanceCache().distances(graph.id(source));
+        return graph.toDistanceMap(source, dist);
     }
 
-    static void findAmbulance(Patient patient, Map<String, Map<String, Integer>> cityHospitalGraph) {
-        List<Hospital> sortedHospitals = hospitalTree.getSortedHospitals();
-        String nearestHospitalName = null;
-        int minDistance = Integer.MAX_VALUE;
-
-        // Find the nearest hospital using Dijkstra's
-        Map<String, Integer> distances = findShortestRoutes(patient.getArea(), cityHospitalGraph);
-        for (Hospital h : sortedHospitals) {
-            if (distances.containsKey(h.getName()) && distances.get(h.getName()) < minDistance) {
-                minDistance = distances.get(h.getName());
-                nearestHospitalName = h.getName();
-            }
+    static void findAmbulance(Patient patient, DispatchService.Session session) {
+        DispatchService.Result<Dispatcher.Assignment> result = session.requestAmbulance(patient);
+        if (!result.ok()) {
+            System.out.println(result); // The assignment itself is printed by the listener
         }
+    }
 
-        Hospital nearestHospital = findHospitalByName(nearestHospitalName);
-
-        Ambulance amb = nearestHospital.getAvailableAmbulance(patient.getSeverity());
-        Doctor assignedDoctor = nearestHospital.getAssignedDoctor(patient.getInjuryType());
-
-        System.out.println("Nearest Hospital: " + nearestHospital.getName() + ", Distance: " + minDistance + " km");
-        if (amb != null) {
-            System.out.println("Ambulance Found: " + amb.ambulanceId);
-            LocalDateTime dispatchTime = LocalDateTime.now();
-            amb.setDispatchTime(dispatchTime);
-            amb.setStatus("Dispatched");
-
-            Map<String, Object> request = new HashMap<>();
-            request.put("type", "EMERGENCY_REQUEST");
-            request.put("time", dispatchTime);
-            request.put("patientName", patient.getName());
-            request.put("patientArea", patient.getArea());
-            request.put("severity", patient.getSeverity());
-            request.put("description", patient.getEmergencyDescription());
-            request.put("injuryType", patient.getInjuryType());
-            request.put("ambulanceId", amb.ambulanceId);
-            request.put("hospitalName", nearestHospital.getName());
-            request.put("status", amb.getStatus());
-            request.put("userRole", currentUserRole.toString());
-            if (assignedDoctor != null) {
-                request.put("assignedDoctor", assignedDoctor.name);
-                System.out.println("Assigned Doctor: " + assignedDoctor.name + " (" + assignedDoctor.specialization + ")");
-            } else {
-                System.out.println("No specific doctor assigned based on injury.");
-            }
-            requestHistory.add(request);
+    // Prints an assignment made by the dispatcher, for this console's calls or the background loop's
+    static void reportAssignment(Dispatcher.Assignment assignment, DispatchService service) {
+        Patient patient = assignment.request.patient;
+        Ambulance amb = assignment.ambulance;
+        Doctor assignedDoctor = assignment.doctor;
+        long dispatchNanos = amb.getDispatchNanos();
 
-            System.out.println("Ambulance dispatched at: " + dispatchTime.format(java.time.format.DateTimeFormatter.ISO_LOCAL_TIME));
-            simulateAmbulanceMovement(amb);
+        System.out.println("Assigned Hospital: " + assignment.hospital.getName() + ", Distance: " + assignment.distance + " km");
+        System.out.println("Ambulance Found: " + amb.ambulanceId + " for " + patient.getName());
 
+        if (assignedDoctor != null) {
+            System.out.println("Assigned Doctor: " + assignedDoctor.name + " (" + assignedDoctor.specialization + ")");
         } else {
-            System.out.println("No suitable ambulances available at the nearest hospital.");
+            System.out.println("No specific doctor assigned based on injury.");
+            Hospital specialist = service.nearestWithFreeDoctor(patient.getArea(), patient.getInjuryType());
+            if (specialist != null && specialist != assignment.hospital) {
+                System.out.println("Nearest hospital with a free specialist for " + patient.getInjuryType() + ": " + specialist.getName());
+            }
         }
 
-        if (requestHistory.size() > 5)
-            requestHistory.remove(0);
-    }
-
-    static void simulateAmbulanceMovement(Ambulance ambulance) {
-        Random random = new Random();
-        int travelSeconds = 5; // Simulate travel time
-
-        System.out.println("Ambulance " + ambulance.ambulanceId + " leaves station.");
-        ambulance.setStatus("EnRoute");
-        System.out.println("Status: " + ambulance.getStatus());
-
-        try {
-            Thread.sleep(travelSeconds * 1000);
-            System.out.println("Ambulance " + ambulance.ambulanceId + " arrives at scene.");
-            ambulance.setStatus("AtScene");
-            System.out.println("Status: " + ambulance.getStatus());
-
-            Thread.sleep(travelSeconds * 1000);
-            System.out.println("Ambulance " + ambulance.ambulanceId + " patient onboard.");
-            ambulance.setStatus("TransportingPatient");
-            System.out.println("Status: " + ambulance.getStatus());
-
-            Thread.sleep(travelSeconds * 1000);
-            LocalDateTime arrivalTime = LocalDateTime.now();
-            ambulance.setArrivalTime(arrivalTime);
-            ambulance.setStatus("AtHospital");
-            System.out.println("Ambulance " + ambulance.ambulanceId + " arrives at hospital at: " + arrivalTime.format(java.time.format.DateTimeFormatter.ISO_LOCAL_TIME));
-            System.out.println("Status: " + ambulance.getStatus());
-            Duration timeTaken = Duration.between(ambulance.getDispatchTime(), arrivalTime);
-            System.out.println("Time taken: " + timeTaken.toMinutes() + " minutes and " + (timeTaken.getSeconds() % 60) + " seconds.");
-
-            ambulance.setAvailable(true);
-            ambulance.setDispatchTime(null);
-            ambulance.setArrivalTime(null);
-            ambulance.setStatus("Available");
-            System.out.println("Ambulance " + ambulance.ambulanceId + " returns to base (simulated). Status: " + ambulance.getStatus());
-
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
+        System.out.println("Ambulance dispatched at: " + AmbulanceLifecycle.formatTime(dispatchNanos));
     }
 
-    static void manualAssignAmbulance(Map<String, Map<String, Integer>> cityHospitalGraph) {
-        if (currentUserRole != UserRole.DISPATCHER && currentUserRole != UserRole.ADMIN) {
+    static void manualAssignAmbulance(DispatchService service, DispatchService.Session session) {
+        if (!session.may(DispatchService.Operation.ASSIGN_MANUAL)) {
             System.out.println("Insufficient permissions for this action.");
             return;
         }
@@ -196,73 +63,53 @@ public class AmbulanceTracker {
         System.out.print("Enter ambulance ID to assign: ");
         String ambulanceId = sc.nextLine();
 
-        Ambulance ambulance = findAmbulanceById(ambulanceId);
-        if (ambulance != null && ambulance.isAvailable()) {
-            System.out.print("Enter patient location (e.g., Sector 17, Mohali Phase 8): ");
-            String patientLocation = sc.nextLine();
-
-            //Find Shortest Hospital
-            String nearestHospitalName = null;
-            int minDistance = Integer.MAX_VALUE;
-
-            Map<String, Integer> distances = findShortestRoutes(patientLocation, cityHospitalGraph);
-            for (Hospital h : hospitalTree.getSortedHospitals()) {
-                if (distances.containsKey(h.getName()) && distances.get(h.getName()) < minDistance) {
-                    minDistance = distances.get(h.getName());
-                    nearestHospitalName = h.getName();
-                }
-            }
-            Hospital nearestHospital = findHospitalByName(nearestHospitalName);
-
-            System.out.print("Enter reason for manual assignment: ");
-            String reason = sc.nextLine();
-            ambulance.setAvailable(false);
-            ambulance.setDispatchTime(LocalDateTime.now());
-            ambulance.setStatus("Dispatched");
-            System.out.println("Ambulance " + ambulanceId + " manually assigned to patient " + patientName + " at " + patientLocation + ".  Nearest Hospital: " + nearestHospitalName + " Distance: " + minDistance +" Reason: " + reason);
-
-        } else {
+        Ambulance ambulance = service.ambulance(ambulanceId);
+        if (ambulance == null || !ambulance.isAvailable()) {
             System.out.println("Ambulance not found or not available.");
+            return;
         }
+        System.out.print("Enter patient location (e.g., Sector 17, Mohali Phase 8): ");
+        String patientLocation = sc.nextLine();
+        System.out.print("Enter reason for manual assignment: ");
+        String reason = sc.nextLine();
+        System.out.println(session.assignManual(patientName, ambulanceId, patientLocation, reason));
     }
 
-    static Ambulance findAmbulanceById(String id) {
-        for (Hospital h : hospitalTree.getSortedHospitals()) {
-            for (Ambulance amb : h.getAmbulances()) {
-                if (amb.ambulanceId.equals(id)) {
-                    return amb;
-                }
-            }
-        }
-        return null;
-    }
-
-    static void updateAmbulanceStatus() {
-        if (currentUserRole != UserRole.DISPATCHER && currentUserRole != UserRole.ADMIN && currentUserRole != UserRole.HOSPITAL_STAFF) {
+    static void updateAmbulanceStatus(DispatchService service, DispatchService.Session session) {
+        if (!session.may(DispatchService.Operation.UPDATE_STATUS)) {
             System.out.println("Insufficient permissions for this action.");
             return;
         }
         System.out.println("\n=== Update Ambulance Status ===");
         System.out.print("Enter ambulance ID to update: ");
         String ambulanceId = sc.nextLine();
-        Ambulance ambulance = findAmbulanceById(ambulanceId);
-        if (ambulance != null) {
-            System.out.print("Enter new status (Available, EnRoute, AtScene, TransportingPatient, AtHospital, Returning): ");
-            String newStatus = sc.nextLine();
-            ambulance.setStatus(newStatus);
-            ambulance.setAvailable(newStatus.equalsIgnoreCase("Available")); // Update availability based on status
-            if (newStatus.equalsIgnoreCase("Dispatched") && ambulance.getDispatchTime() == null) {
-                ambulance.setDispatchTime(LocalDateTime.now());
-            } else if (newStatus.equalsIgnoreCase("AtHospital") && ambulance.getArrivalTime() == null) {
-                ambulance.setArrivalTime(LocalDateTime.now());
-            }
-            System.out.println("Ambulance " + ambulanceId + " status updated to: " + newStatus);
-        } else {
+        if (service.ambulance(ambulanceId) == null) {
             System.out.println("Ambulance not found.");
+            return;
         }
+        System.out.print("Enter new status (Available, EnRoute, AtScene, TransportingPatient, AtHospital, Returning): ");
+        System.out.println(session.updateStatus(ambulanceId, AmbulanceState.parse(sc.nextLine())));
     }
 
-    static void changeUserRole() {
+    static void updateDoctorStatus(DispatchService service, DispatchService.Session session) {
+        if (!session.may(DispatchService.Operation.UPDATE_DOCTOR)) {
+            System.out.println("Insufficient permissions for this action.");
+            return;
+        }
+        System.out.println("\n=== Update Doctor Status ===");
+        System.out.print("Enter doctor name: ");
+        String doctorName = sc.nextLine();
+        Doctor doctor = service.doctor(doctorName);
+        if (doctor == null) {
+            System.out.println("Doctor not found.");
+            return;
+        }
+        System.out.println(doctor + " at " + doctor.hospital.getName());
+        System.out.print("Enter action (OnShift, OffShift, Discharge): ");
+        System.out.println(session.updateDoctor(doctorName, sc.nextLine()));
+    }
+
+    static void changeUserRole(DispatchService.Session session) {
         System.out.println("\n=== Change User Role ===");
         System.out.println("Available Roles:");
         for (UserRole role : UserRole.values()) {
@@ -273,15 +120,15 @@ public class AmbulanceTracker {
         sc.nextLine(); // Consume newline
 
         if (choice > 0 && choice <= UserRole.values().length) {
-            currentUserRole = UserRole.values()[choice - 1];
-            System.out.println("User role changed to: " + currentUserRole);
+            session.setRole(UserRole.values()[choice - 1]);
+            System.out.println("User role changed to: " + session.role());
         } else {
             System.out.println("Invalid role choice.");
         }
     }
 
-    static void requestInterHospitalTransfer() {
-        if (currentUserRole != UserRole.DISPATCHER && currentUserRole != UserRole.ADMIN && currentUserRole != UserRole.HOSPITAL_STAFF) {
+    static void requestInterHospitalTransfer(DispatchService.Session session) {
+        if (!session.may(DispatchService.Operation.TRANSFER)) {
             System.out.println("Insufficient permissions for this action.");
             return;
         }
@@ -296,69 +143,38 @@ public class AmbulanceTracker {
         System.out.print("Enter reason for transfer: ");
         String reason = sc.nextLine();
 
-        Hospital currentHospital = findHospitalByName(currentHospitalName);
-        Hospital destinationHospital = findHospitalByName(destinationHospitalName);
-
-        if (currentHospital == null || destinationHospital == null) {
-            System.out.println("Invalid hospital name(s).");
-            return;
-        }
-
-        Ambulance transferAmbulance = currentHospital.getAvailableAmbulance();
+        System.out.println(session.requestTransfer(patientName, currentHospitalName, destinationHospitalName, reason));
+    }
 
-        if (transferAmbulance == null) {
-            System.out.println("No available ambulances at " + currentHospitalName + " for transfer.");
+    static void updateRoadDistance(DispatchService.Session session) {
+        if (!session.may(DispatchService.Operation.UPDATE_ROAD)) {
+            System.out.println("Insufficient permissions for this action.");
             return;
         }
+        System.out.println("\n=== Update Road Distance ===");
+        System.out.print("Enter start location: ");
+        String from = sc.nextLine();
+        System.out.print("Enter end location: ");
+        String to = sc.nextLine();
+        System.out.print("Enter new distance (km): ");
+        int distance = sc.nextInt();
+        sc.nextLine(); // Consume newline
 
-        transferAmbulance.setAvailable(false);
-        transferAmbulance.setStatus("Transferring"); // New status
-
-        Map<String, Object> transferRequest = new HashMap<>();
-        transferRequest.put("type", TRANSFER_REQUEST);
-        transferRequest.put("time", LocalDateTime.now());
-        transferRequest.put("patientName", patientName);
-        transferRequest.put("fromHospital", currentHospitalName);
-        transferRequest.put("toHospital", destinationHospitalName);
-        transferRequest.put("reason", reason);
-        transferRequest.put("ambulanceId", transferAmbulance.ambulanceId);
-        transferRequest.put("status", transferAmbulance.getStatus());
-        transferRequest.put("userRole", currentUserRole.toString());
-
-        requestHistory.add(transferRequest);
-
-        System.out.println("Ambulance " + transferAmbulance.ambulanceId + " dispatched for transfer from " +
-                currentHospitalName + " to " + destinationHospitalName + ". Reason: " + reason);
-
-        simulateTransfer(transferAmbulance, destinationHospital);
-    }
-
-    static void simulateTransfer(Ambulance ambulance, Hospital destination) {
-        System.out.println("Simulating transfer to " + destination.getName() + "...");
-        ambulance.setStatus("EnRoute");
-        System.out.println("Status: " + ambulance.getStatus());
-
-        try {
-            Thread.sleep(5000); // Simulate travel time
-            ambulance.setStatus("AtHospital"); // Assuming arrival at destination hospital
-            System.out.println("Ambulance arrived at " + destination.getName() + ". Status: " + ambulance.getStatus());
-            ambulance.setAvailable(true);
-            ambulance.setStatus("Available"); // Back to available
-            System.out.println("Ambulance " + ambulance.ambulanceId + " available again. Status: " + ambulance.getStatus());
-
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
+        System.out.println(session.updateRoadDistance(from, to, distance));
     }
 
-    // Add this method to find a hospital by name
-    static Hospital findHospitalByName(String name) {
-        for (Hospital h : hospitalTree.getSortedHospitals()) {
-            if (h.getName().equalsIgnoreCase(name)) {
-                return h;
-            }
+    static void updateTraffic(DispatchService.Session session) {
+        if (!session.may(DispatchService.Operation.UPDATE_TRAFFIC)) {
+            System.out.println("Insufficient permissions for this action.");
+            return;
         }
-        return null;
+        System.out.println("\n=== Update Traffic ===");
+        System.out.print("Enter start location: ");
+        String from = sc.nextLine();
+        System.out.print("Enter end location: ");
+        String to = sc.nextLine();
+        System.out.print("Enter congestion multiplier (e.g. 1.5), or Close / Reopen: ");
+        System.out.println(session.updateTraffic(from, to, sc.nextLine().trim()));
     }
 
     static int getNearestIndex(List<Integer> distances) {
@@ -396,7 +212,8 @@ public class AmbulanceTracker {
 
 
     // -------------------
-    public static void main(String[] args) {
+    // The built-in Chandigarh tricity region used when no region is given on the command line
+    private static RoadGraph loadDemoRegion(HospitalBST hospitalTree) {
         Hospital h1 = new Hospital(10, "PGI Chandigarh");
         h1.addAmbulance("AMB001");
         h1.addAmbulance("AMB002");
@@ -457,9 +274,134 @@ public class AmbulanceTracker {
         cityHospitalGraph.get("Panchkula General").put("Sector 43", 8);
         cityHospitalGraph.get("Panchkula General").put("Mohali Phase 8", 10);
 
+        RoadGraph roadGraph = RoadGraph.compile(cityHospitalGraph);
+
+        // Approximate positions, for routing
+        Map<String, double[]> positions = new HashMap<>();
+        positions.put("Sector 17", new double[] {30.7410, 76.7790});
+        positions.put("Sector 22", new double[] {30.7340, 76.7730});
+        positions.put("Sector 35", new double[] {30.7230, 76.7600});
+        positions.put("Sector 43", new double[] {30.7170, 76.7490});
+        positions.put("Mohali Phase 8", new double[] {30.7090, 76.7020});
+        positions.put("PGI Chandigarh", new double[] {30.7650, 76.7750});
+        positions.put("Max Mohali", new double[] {30.7370, 76.7140});
+        positions.put("Panchkula General", new double[] {30.6950, 76.8550});
+        double[] latitude = new double[roadGraph.nodeCount()];
+        double[] longitude = new double[roadGraph.nodeCount()];
+        for (int i = 0; i < roadGraph.nodeCount(); i++) {
+            latitude[i] = positions.get(roadGraph.name(i))[0];
+            longitude[i] = positions.get(roadGraph.name(i))[1];
+        }
+        roadGraph.setCoordinates(latitude, longitude);
+        return roadGraph;
+    }
+
+    public static void main(String[] args) {
+        DispatchJournal journal = null;
+        try {
+            journal = new DispatchJournal(Paths.get(JOURNAL_FILE));
+        } catch (IOException e) {
+            System.out.println("Dispatch journal disabled: " + e.getMessage());
+        }
+
+        // [region] [--gps=<file or port>] [--http=<port>] [--bind=<address>]
+        String regionPath = null;
+        String gpsSource = null;
+        String httpPort = null;
+        String httpBind = null; // loopback only unless given
+        for (String arg : args) {
+            if (arg.startsWith("--gps=")) {
+                gpsSource = arg.substring("--gps=".length());
+            } else if (arg.startsWith("--http=")) {
+                httpPort = arg.substring("--http=".length());
+            } else if (arg.startsWith("--bind=")) {
+                httpBind = arg.substring("--bind=".length());
+            } else {
+                regionPath = arg;
+            }
+        }
+
+        HospitalBST hospitalTree = new HospitalBST();
+        RoadGraph roadGraph;
+        if (regionPath != null) {
+            // A CSV directory or a region.snapshot file
+            try {
+                Region region = Region.open(Paths.get(regionPath));
+                hospitalTree = region.hospitals;
+                roadGraph = region.roads;
+                roadGraph.useHierarchy(Region.openHierarchy(Paths.get(regionPath), roadGraph));
+            } catch (IOException e) {
+                System.out.println("Could not load region " + regionPath + ": " + e.getMessage());
+                return;
+            }
+        } else {
+            roadGraph = loadDemoRegion(hospitalTree);
+            roadGraph.useHierarchy(ContractionHierarchy.build(roadGraph));
+        }
+        DispatchService service = new DispatchService(hospitalTree, roadGraph, AmbulanceLifecycle.realTime(), journal);
+        if (regionPath == null) {
+            // Rush hours on the Sector 17 - Max Mohali road
+            double[] rushHours = new double[24];
+            Arrays.fill(rushHours, 1.0);
+            rushHours[8] = rushHours[9] = rushHours[17] = rushHours[18] = 1.8;
+            service.traffic.setProfile("Sector 17", "Max Mohali", rushHours);
+            service.traffic.setProfile("Max Mohali", "Sector 17", rushHours);
+        } else {
+            // A matrix written by java DistanceMatrix saves computing it for menu 9
+            try {
+                DistanceMatrix matrix = Region.openMatrix(Paths.get(regionPath), roadGraph, hospitalTree);
+                if (matrix != null) {
+                    service.useDistanceMatrix(matrix);
+                    System.out.println("Loaded hospital distances for " + matrix.rows() + " locations from " +
+                            DistanceMatrix.MATRIX_FILE + ".");
+                }
+            } catch (IOException e) {
+                System.out.println("Stored distance matrix not used: " + e.getMessage());
+            }
+        }
+        service.addListener(new Dispatcher.Listener() {
+            @Override
+            public void assigned(Dispatcher.Assignment assignment) {
+                reportAssignment(assignment, service);
+            }
+
+            @Override
+            public void preempted(Dispatcher.Assignment displaced, Dispatcher.Assignment by) {
+                System.out.println("Ambulance " + displaced.ambulance.ambulanceId + " re-routed from " +
+                        displaced.request.patient.getName() + " (severity " + displaced.request.severity +
+                        ") to critical patient " + by.request.patient.getName() + "; " +
+                        displaced.request.patient.getName() + " is queued again.");
+            }
+        });
+        if (roadGraph.hasCoordinates()) {
+            try {
+                if (service.startPositionFeed(gpsSource) != null) {
+                    System.out.println(gpsSource.matches("\\d+") ? "Listening for ambulance positions on port " + gpsSource + "." :
+                            "Following ambulance positions in " + gpsSource + ".");
+                }
+            } catch (IOException e) {
+                System.out.println("Position feed disabled: " + e.getMessage());
+            }
+        }
+        service.start();
+        DispatchServer httpServer = null;
+        if (httpPort != null) {
+            // Remote consoles work on the same service as this one
+            try {
+                InetAddress bindAddress = httpBind == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(httpBind);
+                httpServer = new DispatchServer(service, bindAddress, Integer.parseInt(httpPort));
+                httpServer.start();
+                System.out.println("Serving dispatch requests over HTTP on " + httpServer.bindAddress().getHostAddress() +
+                        " port " + httpServer.port() + ".");
+            } catch (IOException | NumberFormatException e) {
+                System.out.println("HTTP server disabled: " + e.getMessage());
+            }
+        }
+        DispatchService.Session session = service.openSession(UserRole.DISPATCHER);
+
         while (true) {
             System.out.println("\n=== Ambulance Tracker ===");
-            System.out.println("Current User Role: " + currentUserRole);
+            System.out.println("Current User Role: " + session.role());
             System.out.println("1. Request Ambulance");
             System.out.println("2. Show Recent Requests");
             System.out.println("3. Ambulance Availability");
@@ -469,6 +411,11 @@ public class AmbulanceTracker {
             System.out.println("7. Request Inter-Hospital Transfer");
             System.out.println("8. Exit");
             System.out.println("9. Show Hospital Distances from City Locations");
+            System.out.println("10. Update Road Distance");
+            System.out.println("11. Dispatch Queue Status");
+            System.out.println("12. Update Doctor Status");
+            System.out.println("13. Update Traffic");
+            System.out.println("14. Show Metrics");
             System.out.print("Choice: ");
             int choice = sc.nextInt();
             sc.nextLine(); // consume newline
@@ -487,67 +434,85 @@ public class AmbulanceTracker {
                     System.out.print("Enter the type of injury (e.g., Head, Cardiac, Orthopedic): ");
                     String injuryType = sc.nextLine();
                     Patient patient = new Patient(name, area, severity, description, injuryType);
-                    findAmbulance(patient, cityHospitalGraph);
+                    findAmbulance(patient, session);
                     break;
                 case 2:
                     System.out.println("Recent Requests:");
-                    for (Map<String, Object> req : requestHistory) {
+                    for (DispatchRecord req : service.recentRequests()) {
                         System.out.println("--------------------");
-                        for (Map.Entry<String, Object> entry : req.entrySet()) {
-                            System.out.println(entry.getKey() + ": " + entry.getValue());
-                        }
+                        req.print(System.out);
                     }
                     break;
                 case 3:
                     System.out.println("\n=== Ambulance Availability ===");
-                    for (Hospital h : hospitalTree.getSortedHospitals()) {
-                        System.out.println(h.getName() + ":");
+                    for (Hospital h : service.availability()) {
+                        System.out.println(h.getName() + " (" + h.freeAmbulanceCount() + " of " + h.getAmbulances().size() + " free):");
                         for (Ambulance amb : h.getAmbulances()) {
                             System.out.println("  " + amb.ambulanceId + " - Status: " + amb.getStatus() +
-                                    (amb.getDispatchTime() != null ? " (Dispatched at: " + amb.getDispatchTime().format(java.time.format.DateTimeFormatter.ISO_LOCAL_TIME) + ")" : "") +
-                                    (amb.getArrivalTime() != null ? " (Arrived at: " + amb.getArrivalTime().format(java.time.format.DateTimeFormatter.ISO_LOCAL_TIME) + ")" : ""));
+                                    (amb.getDispatchNanos() != 0 ? " (Dispatched at: " + AmbulanceLifecycle.formatTime(amb.getDispatchNanos()) + ")" : "") +
+                                    (amb.getArrivalNanos() != 0 ? " (Arrived at: " + AmbulanceLifecycle.formatTime(amb.getArrivalNanos()) + ")" : ""));
                         }
                     }
                     break;
                 case 4:
-                    manualAssignAmbulance(cityHospitalGraph);
+                    manualAssignAmbulance(service, session);
                     break;
                 case 5:
-                    updateAmbulanceStatus();
+                    updateAmbulanceStatus(service, session);
                     break;
                 case 6:
-                    changeUserRole();
+                    changeUserRole(session);
                     break;
                 case 7:
-                    requestInterHospitalTransfer();
+                    requestInterHospitalTransfer(session);
                     break;
                 case 8:
                     System.out.println("Exiting...");
+                    if (httpServer != null) {
+                        httpServer.stop();
+                    }
+                    service.shutdown();
                     return;
                 case 9:
                     System.out.println("\n=== Hospital Distances from City Locations ===");
                     String[] sourceLocations = { "Sector 17", "Sector 22", "Sector 35", "Sector 43", "Mohali Phase 8" };
+                    DistanceMatrix matrix = service.distanceMatrix();
                     for (String source : sourceLocations) {
                         System.out.println("\nShortest distances from " + source + ":");
-                        Map<String, Integer> distances = findShortestRoutes(source, cityHospitalGraph);
-                        // Print distances only for hospitals
-                        for (Map.Entry<String, Integer> entry : distances.entrySet()) {
-                            // Match hospital names exactly to those in hospitalTree
-                            // Assuming hospital names end with "Hospital" or include "PGI Chandigarh" etc.
-                            // So we'll print distances for hospitals present in hospitalTree
-                            boolean isHospital = false;
-                            for (Hospital h : hospitalTree.getSortedHospitals()) {
-                                if (h.getName().equalsIgnoreCase(entry.getKey())) {
-                                    isHospital = true;
-                                    break;
-                                }
-                            }
-                            if (isHospital && entry.getValue() != Integer.MAX_VALUE) {
-                                System.out.println("  " + entry.getKey() + ": " + entry.getValue() + " km");
-                            }
+                        // Every hospital on the road graph, nearest first, from the location x hospital matrix
+                        int node = roadGraph.id(source);
+                        if (node == -1) {
+                            continue;
+                        }
+                        for (int c : matrix.byDistance(node)) {
+                            System.out.println("  " + matrix.hospitals[c] + ": " + matrix.distance(node, c) + " km");
                         }
                     }
                     break;
+                case 10:
+                    updateRoadDistance(session);
+                    break;
+                case 11:
+                    DispatchQueue queue = service.dispatcher.queue();
+                    System.out.println("\n=== Dispatch Queue Status ===");
+                    System.out.println("Waiting requests: " + queue.depth());
+                    System.out.println("Wait time p50: " + queue.waitPercentile(50) + " ms, p90: " + queue.waitPercentile(90) +
+                            " ms, p99: " + queue.waitPercentile(99) + " ms");
+                    System.out.println("Distance cache: " + roadGraph.distanceCache());
+                    if (service.journalFailures() > 0) {
+                        System.out.println("Dispatch journal write failures: " + service.journalFailures());
+                    }
+                    break;
+                case 12:
+                    updateDoctorStatus(service, session);
+                    break;
+                case 13:
+                    updateTraffic(session);
+                    break;
+                case 14:
+                    System.out.println("\n=== Metrics ===");
+                    System.out.print(service.metrics.dump());
+                    break;
                 default:
                     System.out.println("Invalid input.");
             }
@@ -0,0 +1,243 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Optimal batch assignment of free ambulances to pending calls.
+// Builds a travel-cost matrix from the road graph (distance from the patient to the
+// ambulance's base, the direction every dispatch path measures, plus a per-severity offset)
+// and solves min-cost matching with the Hungarian algorithm, so a call is served from a
+// neighbouring hospital when its nearest one has no free unit. When calls outnumber units the
+// offsets make the matching serve every more severe call it can reach before any less severe
+// one; within a tier only distance counts.
+public class BatchAssigner {
+    // Indexed by severity (1: Critical, 2: Urgent, 3: Non-Urgent). One tier step outweighs
+    // the summed distances of any batch, so no saving in km can cost a more severe call its unit.
+    static final long TIER_STEP = 1L << 40;
+    static final long[] SEVERITY_OFFSET = {0, 0, TIER_STEP, 2 * TIER_STEP};
+    static final int DEFAULT_CANDIDATES_PER_CALL = 32;
+    // Far above any tiered cost, but small enough that Hungarian potentials cannot overflow
+    private static final long UNREACHABLE = 1L << 50;
+
+    static class Match {
+        final DispatchQueue.Request request;
+        final Ambulance ambulance;
+        final int distance;
+
+        Match(DispatchQueue.Request request, Ambulance ambulance, int distance) {
+            this.request = request;
+            this.ambulance = ambulance;
+            this.distance = distance;
+        }
+    }
+
+    private final RoadGraph graph;
+    private final HospitalBST hospitalTree;
+    private final int candidatesPerCall;
+    private HospitalScorer scorer; // When set, its penalties are added to the travel distance
+    // Free units per node, per thread; all zero between batches, so no batch pays for the whole graph
+    private final ThreadLocal<int[]> unitsAt = new ThreadLocal<>();
+
+    public BatchAssigner(RoadGraph graph, HospitalBST hospitalTree) {
+        this(graph, hospitalTree, DEFAULT_CANDIDATES_PER_CALL);
+    }
+
+    public BatchAssigner(RoadGraph graph, HospitalBST hospitalTree, int candidatesPerCall) {
+        this.graph = graph;
+        this.hospitalTree = hospitalTree;
+        this.candidatesPerCall = candidatesPerCall;
+    }
+
+    void useScorer(HospitalScorer scorer) {
+        this.scorer = scorer;
+    }
+
+    // Free ambulances across every hospital on the road graph
+    List<Ambulance> freeAmbulances() {
+        List<Ambulance> free = new ArrayList<>();
+        for (Hospital h : hospitalTree) {
+            if (graph.id(h.getName()) == -1) {
+                continue;
+            }
+            if (h.fleet != null) {
+                h.fleet.collectFree(h.fleetIndex, free);
+            }
+        }
+        return free;
+    }
+
+    // Min-cost matching of requests to ambulances. Ambulances are not claimed here;
+    // requests left out (no unit, or none reachable) are simply absent from the result.
+    List<Match> assign(List<DispatchQueue.Request> requests, List<Ambulance> ambulances) {
+        List<Match> matches = new ArrayList<>();
+        if (requests.isEmpty() || ambulances.isEmpty()) {
+            return matches;
+        }
+        int[][] dist = travelDistances(requests, ambulances);
+        int rows = requests.size();
+        int cols = ambulances.size();
+        long[][] cost = new long[rows][cols];
+        Map<Hospital, Integer> penalties = new HashMap<>();
+        for (int i = 0; i < rows; i++) {
+            DispatchQueue.Request request = requests.get(i);
+            long offset = SEVERITY_OFFSET[request.severity];
+            penalties.clear();
+            for (int j = 0; j < cols; j++) {
+                if (dist[i][j] == DijkstraSearch.INF) {
+                    cost[i][j] = UNREACHABLE;
+                    continue;
+                }
+                long km = dist[i][j];
+                Hospital home = ambulances.get(j).home;
+                if (scorer != null && home != null) {
+                    Integer penalty = penalties.get(home);
+                    if (penalty == null) {
+                        penalty = scorer.penalty(home, request.patient.getInjuryType());
+                        penalties.put(home, penalty);
+                    }
+                    km += penalty;
+                }
+                cost[i][j] = offset + km;
+            }
+        }
+
+        int[] rowToCol;
+        if (rows <= cols) {
+            rowToCol = hungarian(cost, rows, cols);
+        } else {
+            // More calls than units: match each ambulance to a call instead
+            long[][] transposed = new long[cols][rows];
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < cols; j++) {
+                    transposed[j][i] = cost[i][j];
+                }
+            }
+            int[] colToRow = hungarian(transposed, cols, rows);
+            rowToCol = new int[rows];
+            Arrays.fill(rowToCol, -1);
+            for (int j = 0; j < cols; j++) {
+                rowToCol[colToRow[j]] = j;
+            }
+        }
+
+        for (int i = 0; i < rows; i++) {
+            int j = rowToCol[i];
+            if (j != -1 && cost[i][j] < UNREACHABLE) {
+                matches.add(new Match(requests.get(i), ambulances.get(j), dist[i][j]));
+            }
+        }
+        return matches;
+    }
+
+    // dist[request][ambulance] from the ambulance's hospital to the patient's area.
+    // Each call searches backwards from the patient only until it has reached
+    // candidatesPerCall free units; units farther out count as unreachable for this batch,
+    // which keeps the searches local on big graphs.
+    int[][] travelDistances(List<DispatchQueue.Request> requests, List<Ambulance> ambulances) {
+        int[] baseNodes = new int[ambulances.size()];
+        int[] unitsAt = this.unitsAt.get();
+        if (unitsAt == null) {
+            unitsAt = new int[graph.nodeCount()];
+            this.unitsAt.set(unitsAt);
+        }
+        for (int j = 0; j < baseNodes.length; j++) {
+            baseNodes[j] = ambulances.get(j).node(graph); // Where it is now if it reports a position
+            if (baseNodes[j] != -1) {
+                unitsAt[baseNodes[j]]++;
+            }
+        }
+        try {
+            return travelDistances(requests, baseNodes, unitsAt);
+        } finally {
+            for (int base : baseNodes) {
+                if (base != -1) {
+                    unitsAt[base] = 0;
+                }
+            }
+        }
+    }
+
+    private int[][] travelDistances(List<DispatchQueue.Request> requests, int[] baseNodes, int[] unitsAt) {
+        int[][] dist = new int[requests.size()][];
+        Map<Integer, int[]> byPatientNode = new HashMap<>();
+        DijkstraSearch search = graph.forwardSearch();
+        for (int i = 0; i < dist.length; i++) {
+            int node = graph.id(requests.get(i).patient.getArea());
+            int[] row = byPatientNode.get(node);
+            if (row == null) {
+                row = new int[baseNodes.length];
+                search.start(node);
+                int reached = 0;
+                int settled;
+                while (reached < candidatesPerCall && (settled = search.next()) != -1) {
+                    reached += unitsAt[settled];
+                }
+                for (int j = 0; j < baseNodes.length; j++) {
+                    int base = baseNodes[j];
+                    row[j] = base != -1 && search.isSettled(base) ? search.distance(base) : DijkstraSearch.INF;
+                }
+                byPatientNode.put(node, row);
+            }
+            dist[i] = row;
+        }
+        return dist;
+    }
+
+    // Hungarian algorithm (potentials, O(n^2 m)) for an n x m matrix with n <= m.
+    // Returns the column matched to each row.
+    static int[] hungarian(long[][] cost, int n, int m) {
+        long[] u = new long[n + 1];
+        long[] v = new long[m + 1];
+        int[] p = new int[m + 1];   // p[j]: row matched to column j (1-based, 0 = free)
+        int[] way = new int[m + 1];
+        long[] minv = new long[m + 1];
+        boolean[] used = new boolean[m + 1];
+        for (int i = 1; i <= n; i++) {
+            p[0] = i;
+            int j0 = 0;
+            Arrays.fill(minv, Long.MAX_VALUE);
+            Arrays.fill(used, false);
+            do {
+                used[j0] = true;
+                int i0 = p[j0];
+                long delta = Long.MAX_VALUE;
+                int j1 = 0;
+                for (int j = 1; j <= m; j++) {
+                    if (!used[j]) {
+                        long cur = cost[i0 - 1][j - 1] - u[i0] - v[j];
+                        if (cur < minv[j]) {
+                            minv[j] = cur;
+                            way[j] = j0;
+                        }
+                        if (minv[j] < delta) {
+                            delta = minv[j];
+                            j1 = j;
+                        }
+                    }
+                }
+                for (int j = 0; j <= m; j++) {
+                    if (used[j]) {
+                        u[p[j]] += delta;
+                        v[j] -= delta;
+                    } else {
+                        minv[j] -= delta;
+                    }
+                }
+                j0 = j1;
+            } while (p[j0] != 0);
+            do {
+                int j1 = way[j0];
+                p[j0] = p[j1];
+                j0 = j1;
+            } while (j0 != 0);
+        }
+        int[] rowToCol = new int[n];
+        for (int j = 1; j <= m; j++) {
+            if (p[j] != 0) {
+                rowToCol[p[j] - 1] = j - 1;
+            }
+        }
+        return rowToCol;
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Compares the greedy nearest-hospital dispatch with BatchAssigner's min-cost matching
+// on a synthetic grid city. Usage: java BatchAssignmentBenchmark [gridSide] [hospitals] [unitsPerHospital] [patients]
+public class BatchAssignmentBenchmark {
+    public static void main(String[] args) {
+        int side = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int hospitalCount = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int unitsPerHospital = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int patientCount = args.length > 3 ? Integer.parseInt(args[3]) : 300;
+
+        RoadGraph graph = gridCity(side, new Random(42));
+        System.out.println("Grid " + side + "x" + side + " (" + graph.nodeCount() + " nodes, " + graph.edgeCount() + " roads), " +
+                hospitalCount + " hospitals x " + unitsPerHospital + " units, " + patientCount + " patients");
+
+        for (int round = 0; round < 3; round++) {
+            run("greedy  ", graph, hospitalCount, unitsPerHospital, patientCount, false);
+            run("hungarian", graph, hospitalCount, unitsPerHospital, patientCount, true);
+        }
+    }
+
+    private static void run(String label, RoadGraph graph, int hospitalCount, int unitsPerHospital, int patientCount, boolean optimal) {
+        Random random = new Random(7);
+        HospitalBST tree = new HospitalBST();
+        for (int h = 0; h < hospitalCount; h++) {
+            Hospital hospital = new Hospital(h, "n" + random.nextInt(graph.nodeCount()));
+            for (int u = 0; u < unitsPerHospital; u++) {
+                hospital.addAmbulance("H" + h + "U" + u);
+            }
+            tree.insert(hospital);
+        }
+        DispatchQueue queue = new DispatchQueue();
+        List<DispatchQueue.Request> requests = new ArrayList<>();
+        for (int p = 0; p < patientCount; p++) {
+            Patient patient = new Patient("P" + p, "n" + random.nextInt(graph.nodeCount()), 1 + random.nextInt(3), "", "");
+            requests.add(queue.offer(patient, p));
+        }
+
+        long start = System.nanoTime();
+        int served = 0;
+        int critical = 0;
+        int criticalServed = 0;
+        long totalDistance = 0;
+        for (DispatchQueue.Request request : requests) {
+            critical += request.severity == 1 ? 1 : 0;
+        }
+        if (optimal) {
+            BatchAssigner assigner = new BatchAssigner(graph, tree);
+            for (BatchAssigner.Match match : assigner.assign(requests, assigner.freeAmbulances())) {
+                if (match.ambulance.tryAcquire()) {
+                    served++;
+                    criticalServed += match.request.severity == 1 ? 1 : 0;
+                    totalDistance += match.distance;
+                }
+            }
+        } else {
+            // The original findAmbulance path: nearest hospital only, fail if it has no free unit
+            NearestHospitalIndex nearest = new NearestHospitalIndex(graph, tree, 1);
+            for (DispatchQueue.Request request : queue.pollBatch(patientCount)) {
+                Hospital hospital = nearest.nearest(request.patient.getArea());
+                if (hospital != null && hospital.getAvailableAmbulance(request.severity) != null) {
+                    served++;
+                    criticalServed += request.severity == 1 ? 1 : 0;
+                    totalDistance += nearest.nearestDistance(request.patient.getArea());
+                }
+            }
+        }
+        long micros = (System.nanoTime() - start) / 1000;
+        System.out.println(label + ": " + micros / 1000.0 + " ms, served " + served + "/" + patientCount +
+                " (critical " + criticalServed + "/" + critical + "), distance " + totalDistance +
+                (served > 0 ? " (avg " + totalDistance / served + ")" : ""));
+    }
+
+    static RoadGraph gridCity(int side, Random random) {
+        return SyntheticCity.roads(side, random);
+    }
+}
@@ -0,0 +1,552 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Contraction Hierarchies over a RoadGraph for fast point-to-point routes.
+// Preprocessing removes nodes one at a time, least important first, adding a shortcut
+// u -> x whenever the only shortest u -> x path ran through the removed node. A query
+// then only climbs: a forward search from the origin and a backward search from the
+// destination, each over edges towards more important nodes, meet near the top and
+// settle a few hundred nodes even on a city-sized graph.
+//
+// The hierarchy is built for the weights the graph had at the time. Once the graph
+// changes (a road update, traffic) route() falls back to RouteSearch, and RoadGraph
+// rebuilds it in the background.
+public class ContractionHierarchy {
+    private static final int MAGIC = ('A' << 24) | ('T' << 16) | ('C' << 8) | 'H';
+    private static final int VERSION = 1;
+    // Witness searches give up after this many nodes; estimates for the ordering use a tighter bound
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+    private static final int ESTIMATE_SETTLE_LIMIT = 10;
+
+    private final RoadGraph graph;
+    private final long weightHash;     // fingerprint of the weights it was built from
+    private final int builtVersion;    // graph.version() it matches, -1 if it matched none
+
+    // up: edges u -> x towards more important x; middle is the contracted node of a shortcut, -1 for a road
+    final int[] upOffsets;
+    final int[] upTargets;
+    final int[] upWeights;
+    final int[] upMiddle;
+    // down: edges x -> u into u from more important x, listed at u
+    final int[] downOffsets;
+    final int[] downSources;
+    final int[] downWeights;
+    final int[] downMiddle;
+
+    private final ThreadLocal<Query> queries = new ThreadLocal<>();
+
+    // Per-thread query buffers
+    private static final class Query {
+        final RouteSearch.Side forward;
+        final RouteSearch.Side backward;
+        int settled;
+        int[] path = new int[16];
+        int length;
+
+        Query(int n) {
+            forward = new RouteSearch.Side(n);
+            backward = new RouteSearch.Side(n);
+        }
+
+        void append(int node) {
+            if (length == path.length) {
+                path = Arrays.copyOf(path, length * 2);
+            }
+            path[length++] = node;
+        }
+    }
+
+    private ContractionHierarchy(RoadGraph graph, long weightHash, int builtVersion, int[][] up, int[][] down) {
+        this.graph = graph;
+        this.weightHash = weightHash;
+        this.builtVersion = builtVersion;
+        upOffsets = up[0];
+        upTargets = up[1];
+        upWeights = up[2];
+        upMiddle = up[3];
+        downOffsets = down[0];
+        downSources = down[1];
+        downWeights = down[2];
+        downMiddle = down[3];
+    }
+
+    static ContractionHierarchy build(RoadGraph graph) {
+        int version = graph.version();
+        long hash = weightHash(graph);
+        Builder builder = new Builder(graph);
+        builder.contractAll();
+        // A road changed while contracting: keep the result, but as stale
+        int builtVersion = graph.version() == version ? version : -1;
+        return new ContractionHierarchy(graph, hash, builtVersion, builder.csr(builder.out), builder.csr(builder.in));
+    }
+
+    // Loads the hierarchy stored at `file` if it was built from the graph's current weights,
+    // otherwise builds one and stores it there
+    static ContractionHierarchy open(RoadGraph graph, Path file) throws IOException {
+        if (Files.exists(file)) {
+            try {
+                return read(graph, file);
+            } catch (IOException e) {
+                // Different weights, older format or damaged file: rebuild below
+            }
+        }
+        ContractionHierarchy hierarchy = build(graph);
+        hierarchy.write(file);
+        return hierarchy;
+    }
+
+    // True while the graph still has the weights the hierarchy was built from
+    boolean isFresh() {
+        return builtVersion != -1 && graph.version() == builtVersion;
+    }
+
+    // Shortest route, or null if the target cannot be reached; falls back to RouteSearch when stale
+    Route route(int source, int target) {
+        if (!isFresh()) {
+            return graph.routeSearch().route(source, target);
+        }
+        Query query = query();
+        RouteSearch.Side forward = query.forward;
+        RouteSearch.Side backward = query.backward;
+        forward.reset();
+        backward.reset();
+        forward.relax(source, 0, -1, 0);
+        backward.relax(target, 0, -1, 0);
+        long best = source == target ? 0 : DijkstraSearch.INF;
+        int meet = source == target ? source : -1;
+        int settled = 0;
+        // Each side may stop once it cannot reach anything shorter than the best meeting point
+        while (forward.minKey() < best || backward.minKey() < best) {
+            boolean up = forward.minKey() <= backward.minKey();
+            RouteSearch.Side side = up ? forward : backward;
+            RouteSearch.Side other = up ? backward : forward;
+            int u = side.pop();
+            settled++;
+            int du = side.dist[u];
+            int[] offsets = up ? upOffsets : downOffsets;
+            int[] ends = up ? upTargets : downSources;
+            int[] weights = up ? upWeights : downWeights;
+            for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+                int v = ends[i];
+                side.relax(v, du + weights[i], u, du + weights[i]);
+                if (other.dist[v] != DijkstraSearch.INF && side.dist[v] != DijkstraSearch.INF
+                        && (long) side.dist[v] + other.dist[v] < best) {
+                    best = (long) side.dist[v] + other.dist[v];
+                    meet = v;
+                }
+            }
+        }
+        query.settled = settled;
+        if (meet == -1) {
+            return null;
+        }
+
+        // Hierarchy edges from source up to meet, then down to target, with shortcuts unpacked
+        int hops = 0;
+        for (int x = meet; x != source; x = forward.parent[x]) {
+            hops++;
+        }
+        int[] climb = new int[hops + 1];
+        int x = meet;
+        for (int i = hops; i >= 0; i--) {
+            climb[i] = x;
+            x = forward.parent[x];
+        }
+        query.length = 0;
+        query.append(source);
+        for (int i = 0; i < hops; i++) {
+            unpack(climb[i], climb[i + 1], upMiddle[edgeIndex(upOffsets, upTargets, climb[i], climb[i + 1])], query);
+        }
+        for (x = meet; x != target; x = backward.parent[x]) {
+            int next = backward.parent[x];
+            unpack(x, next, downMiddle[edgeIndex(downOffsets, downSources, next, x)], query);
+        }
+        return new Route(graph, Arrays.copyOf(query.path, query.length), (int) best);
+    }
+
+    // Nodes settled by the calling thread's last query on the hierarchy
+    int settledCount() {
+        return query().settled;
+    }
+
+    private Query query() {
+        Query query = queries.get();
+        if (query == null) {
+            query = new Query(graph.nodeCount());
+            queries.set(query);
+        }
+        return query;
+    }
+
+    // Appends the road nodes after `from` on the edge from -> to, expanding shortcuts
+    private void unpack(int from, int to, int middle, Query query) {
+        if (middle == -1) {
+            query.append(to);
+            return;
+        }
+        // The middle node was contracted before both ends, so from -> middle is a down edge
+        // listed at middle and middle -> to an up edge of middle
+        unpack(from, middle, downMiddle[edgeIndex(downOffsets, downSources, middle, from)], query);
+        unpack(middle, to, upMiddle[edgeIndex(upOffsets, upTargets, middle, to)], query);
+    }
+
+    private static int edgeIndex(int[] offsets, int[] ends, int at, int end) {
+        for (int i = offsets[at]; i < offsets[at + 1]; i++) {
+            if (ends[i] == end) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Missing hierarchy edge " + at + " -> " + end);
+    }
+
+    // Same layout rules as RegionSnapshot: big-endian ints, "ATCH", version, then
+    // nodes, roads, weight hash, and the up and down arrays
+    void write(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(graph.nodeCount());
+            out.writeInt(graph.edgeCount());
+            out.writeLong(weightHash);
+            out.writeInt(upTargets.length);
+            out.writeInt(downSources.length);
+            for (int[] array : new int[][] {upOffsets, upTargets, upWeights, upMiddle, downOffsets, downSources, downWeights, downMiddle}) {
+                for (int value : array) {
+                    out.writeInt(value);
+                }
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Maps a stored hierarchy; fails if it was built for other weights
+    static ContractionHierarchy read(RoadGraph graph, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+                    throw new IOException("Not a contraction hierarchy: " + path);
+                }
+                int version = graph.version();
+                long hash = weightHash(graph);
+                if (map.getInt() != graph.nodeCount() || map.getInt() != graph.edgeCount() || map.getLong() != hash) {
+                    throw new IOException("Contraction hierarchy is for different road weights: " + path);
+                }
+                int n = graph.nodeCount();
+                int upCount = map.getInt();
+                int downCount = map.getInt();
+                int[][] up = {readInts(map, n + 1), readInts(map, upCount), readInts(map, upCount), readInts(map, upCount)};
+                int[][] down = {readInts(map, n + 1), readInts(map, downCount), readInts(map, downCount), readInts(map, downCount)};
+                return new ContractionHierarchy(graph, hash, version, up, down);
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt contraction hierarchy: " + path, e);
+            }
+        }
+    }
+
+    private static int[] readInts(ByteBuffer in, int count) {
+        int[] values = new int[count];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + count * 4);
+        return values;
+    }
+
+    // FNV-1a over the graph's edges and weights
+    static long weightHash(RoadGraph graph) {
+        long h = 0xcbf29ce484222325L;
+        for (int u = 0; u < graph.nodeCount(); u++) {
+            for (int e = graph.offsets[u]; e < graph.offsets[u + 1]; e++) {
+                h = (h ^ u) * 0x100000001b3L;
+                h = (h ^ graph.targets[e]) * 0x100000001b3L;
+                h = (h ^ graph.weights[e]) * 0x100000001b3L;
+            }
+        }
+        return h;
+    }
+
+    // Edges of one node while contracting: parallel arrays with the cheapest weight per neighbour
+    private static final class EdgeList {
+        int[] node = new int[4];
+        int[] weight = new int[4];
+        int[] middle = new int[4];
+        int size;
+
+        void addOrLower(int x, int w, int mid) {
+            for (int i = 0; i < size; i++) {
+                if (node[i] == x) {
+                    if (w < weight[i]) {
+                        weight[i] = w;
+                        middle[i] = mid;
+                    }
+                    return;
+                }
+            }
+            if (size == node.length) {
+                node = Arrays.copyOf(node, size * 2);
+                weight = Arrays.copyOf(weight, size * 2);
+                middle = Arrays.copyOf(middle, size * 2);
+            }
+            node[size] = x;
+            weight[size] = w;
+            middle[size] = mid;
+            size++;
+        }
+
+        void remove(int x) {
+            for (int i = 0; i < size; i++) {
+                if (node[i] == x) {
+                    size--;
+                    node[i] = node[size];
+                    weight[i] = weight[size];
+                    middle[i] = middle[size];
+                    return;
+                }
+            }
+        }
+    }
+
+    // Contraction state. A node's lists hold only nodes not yet contracted, so once it is
+    // contracted they are exactly its up (out) and down (in) edges.
+    private static final class Builder {
+        final int n;
+        final EdgeList[] out;
+        final EdgeList[] in;
+        final boolean[] contracted;
+        final int[] deletedNeighbors;
+        final int[] priority;
+
+        // Witness search buffers
+        final int[] dist;
+        final int[] touched;
+        int touchedCount;
+        long[] heap = new long[64];
+        int heapSize;
+
+        Builder(RoadGraph graph) {
+            n = graph.nodeCount();
+            out = new EdgeList[n];
+            in = new EdgeList[n];
+            for (int v = 0; v < n; v++) {
+                out[v] = new EdgeList();
+                in[v] = new EdgeList();
+            }
+            for (int u = 0; u < n; u++) {
+                for (int e = graph.offsets[u]; e < graph.offsets[u + 1]; e++) {
+                    int v = graph.targets[e];
+                    int w = graph.weights[e];
+                    if (v != u && w != DijkstraSearch.INF) {
+                        out[u].addOrLower(v, w, -1);
+                        in[v].addOrLower(u, w, -1);
+                    }
+                }
+            }
+            contracted = new boolean[n];
+            deletedNeighbors = new int[n];
+            priority = new int[n];
+            dist = new int[n];
+            touched = new int[n];
+            Arrays.fill(dist, DijkstraSearch.INF);
+        }
+
+        void contractAll() {
+            // Queue keys: (priority << 32 | node), with priority shifted to stay non-negative
+            java.util.PriorityQueue<Long> queue = new java.util.PriorityQueue<>();
+            for (int v = 0; v < n; v++) {
+                priority[v] = priorityOf(v);
+                queue.add(key(priority[v], v));
+            }
+            while (!queue.isEmpty()) {
+                long top = queue.poll();
+                int v = (int) top;
+                if (contracted[v] || (int) (top >> 32) - (1 << 30) != priority[v]) {
+                    continue; // outdated entry
+                }
+                // Lazy update: neighbours contracted since it was queued may have changed its priority
+                int current = priorityOf(v);
+                if (current != priority[v]) {
+                    priority[v] = current;
+                    Long next = queue.peek();
+                    if (next != null && key(current, v) > next) {
+                        queue.add(key(current, v));
+                        continue;
+                    }
+                }
+                contract(v);
+                for (int i = 0; i < out[v].size; i++) {
+                    touchNeighbour(out[v].node[i], queue);
+                }
+                for (int i = 0; i < in[v].size; i++) {
+                    touchNeighbour(in[v].node[i], queue);
+                }
+            }
+        }
+
+        private void touchNeighbour(int x, java.util.PriorityQueue<Long> queue) {
+            deletedNeighbors[x]++;
+            int p = priorityOf(x);
+            if (p != priority[x]) {
+                priority[x] = p;
+                queue.add(key(p, x));
+            }
+        }
+
+        private static long key(int priority, int node) {
+            return ((long) (priority + (1 << 30)) << 32) | node;
+        }
+
+        // Edge difference plus contracted neighbours, so the hierarchy stays shallow and even
+        private int priorityOf(int v) {
+            return shortcuts(v, false) - in[v].size - out[v].size + deletedNeighbors[v];
+        }
+
+        private void contract(int v) {
+            shortcuts(v, true);
+            contracted[v] = true;
+            for (int i = 0; i < out[v].size; i++) {
+                in[out[v].node[i]].remove(v);
+            }
+            for (int i = 0; i < in[v].size; i++) {
+                out[in[v].node[i]].remove(v);
+            }
+        }
+
+        // Shortcuts needed to contract v; added to the remaining graph when `add` is set
+        private int shortcuts(int v, boolean add) {
+            EdgeList ins = in[v];
+            EdgeList outs = out[v];
+            if (ins.size == 0 || outs.size == 0) {
+                return 0;
+            }
+            int maxOut = 0;
+            for (int j = 0; j < outs.size; j++) {
+                maxOut = Math.max(maxOut, outs.weight[j]);
+            }
+            int count = 0;
+            for (int i = 0; i < ins.size; i++) {
+                int u = ins.node[i];
+                int w1 = ins.weight[i];
+                witnessSearch(u, v, (long) w1 + maxOut, add ? WITNESS_SETTLE_LIMIT : ESTIMATE_SETTLE_LIMIT);
+                for (int j = 0; j < outs.size; j++) {
+                    int x = outs.node[j];
+                    long through = (long) w1 + outs.weight[j];
+                    if (x == u || dist[x] <= through || through >= DijkstraSearch.INF) {
+                        continue; // a path avoiding v is as short
+                    }
+                    count++;
+                    if (add) {
+                        out[u].addOrLower(x, (int) through, v);
+                        in[x].addOrLower(u, (int) through, v);
+                    }
+                }
+            }
+            return count;
+        }
+
+        // Bounded Dijkstra from source over the remaining graph without `skip`
+        private void witnessSearch(int source, int skip, long maxDist, int settleLimit) {
+            for (int i = 0; i < touchedCount; i++) {
+                dist[touched[i]] = DijkstraSearch.INF;
+            }
+            touchedCount = 0;
+            heapSize = 0;
+            dist[source] = 0;
+            touched[touchedCount++] = source;
+            push(source, 0);
+            int settled = 0;
+            while (heapSize > 0) {
+                long top = pop();
+                int d = (int) (top >>> 32);
+                int u = (int) top;
+                if (d > dist[u]) {
+                    continue;
+                }
+                if (d > maxDist || ++settled > settleLimit) {
+                    break;
+                }
+                EdgeList edges = out[u];
+                for (int i = 0; i < edges.size; i++) {
+                    int x = edges.node[i];
+                    if (x == skip) {
+                        continue;
+                    }
+                    long nd = (long) d + edges.weight[i];
+                    if (nd < dist[x]) {
+                        if (dist[x] == DijkstraSearch.INF) {
+                            touched[touchedCount++] = x;
+                        }
+                        dist[x] = (int) nd;
+                        push(x, (int) nd);
+                    }
+                }
+            }
+        }
+
+        private void push(int node, int d) {
+            if (heapSize == heap.length) {
+                heap = Arrays.copyOf(heap, heapSize * 2);
+            }
+            long key = ((long) d << 32) | node;
+            int i = heapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= key) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = key;
+        }
+
+        private long pop() {
+            long top = heap[0];
+            long last = heap[--heapSize];
+            int i = 0;
+            int half = heapSize >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (last <= heap[child]) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            if (heapSize > 0) {
+                heap[i] = last;
+            }
+            return top;
+        }
+
+        // {offsets, ends, weights, middles} of the frozen per-node lists
+        int[][] csr(EdgeList[] lists) {
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                offsets[v + 1] = offsets[v] + lists[v].size;
+            }
+            int m = offsets[n];
+            int[] ends = new int[m];
+            int[] weights = new int[m];
+            int[] middles = new int[m];
+            for (int v = 0; v < n; v++) {
+                EdgeList list = lists[v];
+                System.arraycopy(list.node, 0, ends, offsets[v], list.size);
+                System.arraycopy(list.weight, 0, weights, offsets[v], list.size);
+                System.arraycopy(list.middle, 0, middles, offsets[v], list.size);
+            }
+            return new int[][] {offsets, ends, weights, middles};
+        }
+    }
+}
@@ -0,0 +1,177 @@
+import java.util.Arrays;
+
+// Dijkstra over a RoadGraph using an indexed binary heap of node ids.
+// All buffers are allocated once and reused; only nodes touched by the previous
+// search are reset, so a short search on a big graph stays cheap. Not thread-safe.
+public class DijkstraSearch {
+    static final int INF = Integer.MAX_VALUE;
+
+    private final RoadGraph graph;
+    private final boolean reverse; // follow incoming edges, i.e. distances *to* the source
+
+    private final int[] dist;
+    private final int[] heap;      // node ids ordered by dist
+    private final int[] heapDist;  // dist of heap[i], kept inline so sifting avoids a lookup per step
+    private final int[] heapIndex; // position of a node in heap, -1 if not queued
+    private final boolean[] settled;
+    private final int[] touched;
+    private int heapSize;
+    private int touchedCount;
+    private int settledCount;
+    private boolean counted; // the current search has gone into the graph's metrics
+
+    public DijkstraSearch(RoadGraph graph, boolean reverse) {
+        this.graph = graph;
+        this.reverse = reverse;
+        int n = graph.nodeCount();
+        dist = new int[n];
+        heap = new int[n];
+        heapDist = new int[n];
+        heapIndex = new int[n];
+        settled = new boolean[n];
+        touched = new int[n];
+        Arrays.fill(dist, INF);
+        Arrays.fill(heapIndex, -1);
+    }
+
+    // Runs a full search and returns the distance array. The array is owned by this
+    // search and is only valid until the next call to start/run.
+    int[] run(int source) {
+        start(source);
+        while (next() != -1) {
+            // settle everything reachable
+        }
+        count();
+        return dist;
+    }
+
+    void start(int source) {
+        count(); // A search stopped early, as most incremental ones are, is counted here
+        for (int i = 0; i < touchedCount; i++) {
+            int node = touched[i];
+            dist[node] = INF;
+            heapIndex[node] = -1;
+            settled[node] = false;
+        }
+        touchedCount = 0;
+        heapSize = 0;
+        settledCount = 0;
+        counted = false;
+        if (source >= 0) {
+            relax(source, 0);
+        }
+    }
+
+    // Settles the next closest node and returns it, or -1 once the search is exhausted
+    int next() {
+        if (heapSize == 0) {
+            return -1;
+        }
+        int u = pop();
+        settled[u] = true;
+        settledCount++;
+        int du = dist[u];
+        if (reverse) {
+            for (int i = graph.revOffsets[u]; i < graph.revOffsets[u + 1]; i++) {
+                int w = graph.weights[graph.revEdges[i]];
+                if (w != INF) {
+                    relax(graph.revSources[i], du + w);
+                }
+            }
+        } else {
+            for (int e = graph.offsets[u]; e < graph.offsets[u + 1]; e++) {
+                int w = graph.weights[e];
+                if (w != INF) {
+                    relax(graph.targets[e], du + w);
+                }
+            }
+        }
+        return u;
+    }
+
+    int distance(int node) {
+        return dist[node];
+    }
+
+    boolean isSettled(int node) {
+        return settled[node];
+    }
+
+    int settledCount() {
+        return settledCount;
+    }
+
+    // Records the search in the graph's metrics (nodes settled), once per search
+    private void count() {
+        if (!counted && settledCount > 0) {
+            graph.recordSearch(settledCount);
+        }
+        counted = true;
+    }
+
+    private void relax(int v, int d) {
+        if (d < 0 || settled[v] || d >= dist[v]) {
+            return; // overflow, already final, or no improvement
+        }
+        if (dist[v] == INF && heapIndex[v] == -1) {
+            touched[touchedCount++] = v;
+        }
+        dist[v] = d;
+        if (heapIndex[v] == -1) {
+            heap[heapSize] = v;
+            heapIndex[v] = heapSize;
+            heapSize++;
+        }
+        siftUp(heapIndex[v]);
+    }
+
+    private int pop() {
+        int top = heap[0];
+        heapIndex[top] = -1;
+        heapSize--;
+        if (heapSize > 0) {
+            siftDown(0, heap[heapSize], heapDist[heapSize]);
+        }
+        return top;
+    }
+
+    private void siftUp(int i) {
+        int node = heap[i];
+        int d = dist[node];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapDist[parent] <= d) {
+                break;
+            }
+            heap[i] = heap[parent];
+            heapDist[i] = heapDist[parent];
+            heapIndex[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = node;
+        heapDist[i] = d;
+        heapIndex[node] = i;
+    }
+
+    // Places node (with distance d) at hole i and moves it down to its spot
+    private void siftDown(int i, int node, int d) {
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < heapSize && heapDist[right] < heapDist[child]) {
+                child = right;
+            }
+            if (d <= heapDist[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            heapDist[i] = heapDist[child];
+            heapIndex[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = node;
+        heapDist[i] = d;
+        heapIndex[node] = i;
+    }
+}
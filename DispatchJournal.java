@@ -0,0 +1,207 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Append-only on-disk audit trail of every DispatchRecord.
+// File layout: "DJNL", a version byte, then records of [varint length][payload].
+// Payload: type byte, varint time, varint severity, then each string field as
+// varint (byte length + 1, 0 for null) followed by its UTF-8 bytes.
+// Writes go through a buffer on a FileChannel; reading maps the file into memory.
+public class DispatchJournal implements Closeable {
+    private static final byte[] MAGIC = {'D', 'J', 'N', 'L'};
+    private static final byte VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private ByteBuffer scratch = ByteBuffer.allocate(512);
+
+    public DispatchJournal(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (channel.size() == 0) {
+            buffer.put(MAGIC).put(VERSION);
+            flush();
+        }
+    }
+
+    synchronized void append(DispatchRecord record) throws IOException {
+        scratch.clear();
+        putByte((byte) record.type.ordinal());
+        putVarLong(record.timeMillis);
+        putVarLong(record.severity);
+        putString(record.patientName);
+        putString(record.ambulanceId);
+        putString(record.status);
+        putString(record.userRole);
+        putString(record.patientArea);
+        putString(record.description);
+        putString(record.injuryType);
+        putString(record.hospitalName);
+        putString(record.assignedDoctor);
+        putString(record.fromHospital);
+        putString(record.toHospital);
+        putString(record.reason);
+        scratch.flip();
+
+        int length = scratch.remaining();
+        if (buffer.remaining() < length + 5) {
+            flush();
+        }
+        if (buffer.remaining() < length + 5) {
+            // Larger than the whole buffer: write straight through
+            ByteBuffer header = ByteBuffer.allocate(5);
+            writeVarInt(header, length);
+            header.flip();
+            write(header);
+            write(scratch);
+        } else {
+            writeVarInt(buffer, length);
+            buffer.put(scratch);
+        }
+    }
+
+    // Pushes buffered records to the file
+    synchronized void flush() throws IOException {
+        buffer.flip();
+        write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    private void write(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+
+    // Reads every complete record; a torn record at the end (e.g. after a crash) is ignored
+    static List<DispatchRecord> readAll(Path path) throws IOException {
+        List<DispatchRecord> records = new ArrayList<>();
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (in.size() == 0) {
+                return records;
+            }
+            MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            for (byte b : MAGIC) {
+                if (map.get() != b) {
+                    throw new IOException("Not a dispatch journal: " + path);
+                }
+            }
+            if (map.get() != VERSION) {
+                throw new IOException("Unsupported dispatch journal version: " + path);
+            }
+            while (map.hasRemaining()) {
+                int start = map.position();
+                try {
+                    int length = (int) readVarLong(map);
+                    if (length > map.remaining()) {
+                        break;
+                    }
+                    ByteBuffer payload = map.slice();
+                    payload.limit(length);
+                    map.position(map.position() + length);
+                    records.add(decode(payload));
+                } catch (RuntimeException torn) {
+                    map.position(start);
+                    break;
+                }
+            }
+        }
+        return records;
+    }
+
+    private static DispatchRecord decode(ByteBuffer in) {
+        DispatchRecord.Type type = DispatchRecord.Type.values()[in.get()];
+        long time = readVarLong(in);
+        int severity = (int) readVarLong(in);
+        String patientName = readString(in);
+        String ambulanceId = readString(in);
+        String status = readString(in);
+        String userRole = readString(in);
+        String patientArea = readString(in);
+        String description = readString(in);
+        String injuryType = readString(in);
+        String hospitalName = readString(in);
+        String assignedDoctor = readString(in);
+        String fromHospital = readString(in);
+        String toHospital = readString(in);
+        String reason = readString(in);
+        return new DispatchRecord(type, time, patientName, ambulanceId, status, userRole, patientArea, severity,
+                description, injuryType, hospitalName, assignedDoctor, fromHospital, toHospital, reason);
+    }
+
+    private void putByte(byte b) {
+        ensure(1);
+        scratch.put(b);
+    }
+
+    private void putVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            scratch.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        scratch.put((byte) value);
+    }
+
+    private void putString(String s) {
+        if (s == null) {
+            putVarLong(0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        putVarLong(bytes.length + 1L);
+        ensure(bytes.length);
+        scratch.put(bytes);
+    }
+
+    private void ensure(int bytes) {
+        if (scratch.remaining() < bytes) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(scratch.capacity() * 2, scratch.position() + bytes));
+            scratch.flip();
+            bigger.put(scratch);
+            scratch = bigger;
+        }
+    }
+
+    private static void writeVarInt(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = (int) readVarLong(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
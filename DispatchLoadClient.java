@@ -0,0 +1,157 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Closed-loop load on a DispatchServer: each connection sends its next request as soon as the
+// last one is answered. Most requests read /availability; a share are calls for an ambulance,
+// placed at hospital locations (always valid areas) read from the server at the start.
+// Reports requests/sec, the replies by HTTP code and p50/p99/p999/max latency.
+// Connections run on virtual threads where the JVM has them, so thousands are cheap.
+// Usage: java DispatchLoadClient [baseUrl] [connections] [seconds] [percentCalls]
+public class DispatchLoadClient {
+    private static final Pattern HOSPITAL_NAME = Pattern.compile("\\{\"name\":(\"(?:[^\"\\\\]|\\\\.)*\")");
+
+    // One connection's results; read only after its thread has finished
+    private static final class Worker {
+        long[] latencies = new long[1024];
+        int count;
+        int[] codes = new int[6]; // by HTTP code / 100; 0 = transport error
+
+        void record(long nanos, int code) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+            codes[code / 100]++;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String base = args.length > 0 ? args[0] : "http://localhost:" + DispatchServer.DEFAULT_PORT;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        int percentCalls = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        List<String> areas = new ArrayList<>();
+        Matcher m = HOSPITAL_NAME.matcher(send(base + "/availability", null, new int[1]));
+        while (m.find()) {
+            areas.add(DispatchServer.parseObject("{\"name\":" + m.group(1) + "}").get("name"));
+        }
+        if (areas.isEmpty()) {
+            System.out.println("No hospitals at " + base + "/availability.");
+            return;
+        }
+        ExecutorService perConnection = DispatchServer.virtualThreads();
+        boolean virtual = perConnection != null;
+        if (perConnection == null) {
+            perConnection = Executors.newCachedThreadPool();
+        }
+        System.out.println(connections + " connections for " + seconds + " s, " + percentCalls + "% ambulance calls over " +
+                areas.size() + " locations" + (virtual ? ", on virtual threads" : ""));
+
+        Worker[] workers = new Worker[connections];
+        CountDownLatch done = new CountDownLatch(connections);
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        for (int w = 0; w < connections; w++) {
+            Worker worker = workers[w] = new Worker();
+            Random random = new Random(w);
+            int id = w;
+            perConnection.execute(() -> {
+                try {
+                    int[] code = new int[1];
+                    for (int n = 0; System.nanoTime() < end; n++) {
+                        boolean call = random.nextInt(100) < percentCalls;
+                        long sent = System.nanoTime();
+                        try {
+                            if (call) {
+                                String area = areas.get(random.nextInt(areas.size()));
+                                send(base + "/request", "{\"name\":" + DispatchServer.quote("L" + id + "-" + n) +
+                                        ",\"area\":" + DispatchServer.quote(area) + ",\"severity\":" + (1 + random.nextInt(3)) +
+                                        ",\"injury\":\"General\"}", code);
+                            } else {
+                                send(base + "/availability", null, code);
+                            }
+                        } catch (IOException e) {
+                            code[0] = 0;
+                        }
+                        worker.record(System.nanoTime() - sent, code[0]);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        perConnection.shutdown();
+
+        int total = 0;
+        int[] codes = new int[6];
+        for (Worker worker : workers) {
+            total += worker.count;
+            for (int c = 0; c < codes.length; c++) {
+                codes[c] += worker.codes[c];
+            }
+        }
+        long[] all = new long[total];
+        int at = 0;
+        for (Worker worker : workers) {
+            System.arraycopy(worker.latencies, 0, all, at, worker.count);
+            at += worker.count;
+        }
+        Arrays.sort(all);
+        System.out.println("requests " + total + ", " + String.format("%.1f", total / (elapsed / 1e9)) + "/s; 2xx " + codes[2] +
+                ", 4xx " + codes[4] + ", 5xx " + codes[5] + ", failed " + codes[0]);
+        System.out.println("latency ms: p50 " + millis(all, 50) + ", p99 " + millis(all, 99) + ", p999 " + millis(all, 99.9) +
+                ", max " + millis(all, 100));
+    }
+
+    // GET, or POST when there is a body; returns the reply body and puts the HTTP code in code[0]
+    private static String send(String url, String body, int[] code) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (body != null) {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        code[0] = connection.getResponseCode();
+        // Read the body to the end, error or not, so the connection goes back to the keep-alive pool
+        try (InputStream in = code[0] >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+            if (in == null) {
+                return "";
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                bytes.write(buffer, 0, n);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    // Nearest-rank percentile
+    private static String millis(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return "-";
+        }
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return String.format("%.2f", sorted[Math.max(0, index)] / 1e6);
+    }
+}
@@ -0,0 +1,144 @@
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Headless load test of the dispatch path on a SyntheticCity. Calls arrive as a Poisson stream at
+// the target rate in wall-clock time and go through a DispatchService session, as the console's
+// calls do. Trips run on a simulated clock kept in step with the wall clock, with short
+// legs, so units come back into service while the test runs: a unit is out for three legs a call,
+// which puts the fleet's capacity at units / (3 * leg) calls per second.
+//
+// Latency is measured from when a call was due to arrive, not from when the driver got round to
+// it, so a driver that falls behind shows up in the tail instead of hiding it. Calls that had to
+// wait for a unit to come back count from their arrival to their assignment. Unserved calls are
+// the ones still queued or unreachable when the run ends.
+// Usage: java DispatchLoadTest [gridSide] [hospitals] [unitsPerHospital] [callsPerSecond] [seconds]
+//                              [legMillis] [seed]
+public class DispatchLoadTest {
+    static final double[] SEVERITY_MIX = {0.1, 0.3, 0.6}; // critical, urgent, non-urgent
+
+    private final Dispatcher dispatcher;
+    private final DispatchService.Session session;
+    private final AmbulanceLifecycle.SimulatedScheduler clock;
+    private final Map<Patient, Long> dueAt = new IdentityHashMap<>(); // calls not assigned yet, by arrival time
+    private long[] latencies = new long[1024];
+    private int assigned;
+    private int assignedOnArrival;
+    private int preempted;
+    private Patient arriving; // the call being submitted right now
+
+    DispatchLoadTest(SyntheticCity city, long legMillis) {
+        this.clock = new AmbulanceLifecycle.SimulatedScheduler(0);
+        AmbulanceLifecycle lifecycle = AmbulanceLifecycle.simulated(clock, legMillis);
+        DispatchService service = new DispatchService(city.hospitals, city.roads, lifecycle, null);
+        service.addListener(new Dispatcher.Listener() {
+            @Override
+            public void assigned(Dispatcher.Assignment assignment) {
+                recordAssignment(assignment);
+            }
+
+            @Override
+            public void preempted(Dispatcher.Assignment displaced, Dispatcher.Assignment by) {
+                preempted++;
+            }
+        });
+        this.dispatcher = service.dispatcher;
+        this.session = service.openSession(UserRole.DISPATCHER);
+    }
+
+    private void recordAssignment(Dispatcher.Assignment assignment) {
+        Patient patient = assignment.request.patient;
+        Long due = dueAt.remove(patient);
+        if (due == null) {
+            return; // A displaced call served again; its first assignment was counted
+        }
+        if (assigned == latencies.length) {
+            latencies = Arrays.copyOf(latencies, assigned * 2);
+        }
+        latencies[assigned++] = System.nanoTime() - due;
+        if (patient == arriving) {
+            assignedOnArrival++;
+        }
+    }
+
+    public static void main(String[] args) {
+        int side = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int hospitalCount = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int unitsPerHospital = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        double callsPerSecond = args.length > 3 ? Double.parseDouble(args[3]) : 50;
+        double seconds = args.length > 4 ? Double.parseDouble(args[4]) : 30;
+        long legMillis = args.length > 5 ? Long.parseLong(args[5]) : 1000;
+        long seed = args.length > 6 ? Long.parseLong(args[6]) : 1;
+
+        SyntheticCity city = new SyntheticCity(seed, side, hospitalCount, unitsPerHospital);
+        System.out.println("City " + side + "x" + side + " (" + city.roads.nodeCount() + " nodes, " + city.roads.edgeCount() +
+                " roads), " + hospitalCount + " hospitals x " + unitsPerHospital + " units, seed " + seed);
+        System.out.println("Offering " + callsPerSecond + " calls/s for " + seconds + " s; " + legMillis +
+                " ms per trip leg, so the fleet serves about " +
+                String.format("%.1f", hospitalCount * unitsPerHospital * 1000.0 / (3 * legMillis)) + " calls/s");
+
+        DispatchLoadTest test = new DispatchLoadTest(city, legMillis);
+        test.run(city.calls(callsPerSecond, SEVERITY_MIX), (long) (seconds * 1e9));
+    }
+
+    // Offers calls until runNanos have passed, then prints the report
+    void run(SyntheticCity.Calls calls, long runNanos) {
+        int offered = 0;
+        int unreachable = 0;
+        long start = System.nanoTime();
+        for (long at = calls.nextArrival(); at < runNanos; at = calls.nextArrival()) {
+            Patient patient = calls.nextPatient();
+            long due = start + at;
+            long now;
+            while ((now = System.nanoTime()) < due) {
+                if (due - now > 2_000_000) {
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                } else {
+                    Thread.yield();
+                }
+            }
+            // Finish the trip legs that are over by now
+            clock.advance(Math.max(0, (now - start) / 1_000_000 - clock.nowMillis()));
+
+            offered++;
+            dueAt.put(patient, due);
+            arriving = patient;
+            if (session.requestAmbulance(patient).status == DispatchService.Result.Status.UNAVAILABLE) {
+                dueAt.remove(patient);
+                unreachable++;
+            }
+            arriving = null;
+        }
+        long elapsed = System.nanoTime() - start;
+        report(offered, unreachable, elapsed);
+    }
+
+    private void report(int offered, int unreachable, long elapsedNanos) {
+        int queued = dispatcher.queue().depth();
+        int unserved = queued + unreachable;
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("calls " + offered + " (" + String.format("%.1f", offered / seconds) + "/s), assigned " + assigned +
+                " (" + assignedOnArrival + " on arrival), preempted " + preempted);
+        System.out.println("unserved " + unserved + " (" + String.format("%.2f", offered == 0 ? 0.0 : 100.0 * unserved / offered) +
+                "%): " + queued + " still queued, " + unreachable + " unreachable");
+        System.out.println("throughput " + String.format("%.1f", assigned / seconds) + " assignments/s");
+        long[] sorted = Arrays.copyOf(latencies, assigned);
+        Arrays.sort(sorted);
+        System.out.println("dispatch latency us: p50 " + micros(sorted, 50) + ", p99 " + micros(sorted, 99) +
+                ", p999 " + micros(sorted, 99.9) + ", max " + micros(sorted, 100));
+    }
+
+    // Nearest-rank percentile, as DispatchQueue reports its wait times
+    private static String micros(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return "-";
+        }
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return String.format("%.1f", sorted[Math.max(0, index)] / 1000.0);
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Incoming emergency requests ordered by severity and wait time.
+// Each request gets a fixed priority key of arrival time plus a per-severity slack,
+// so a critical call jumps ahead of recent non-urgent ones, but a non-urgent call
+// that has waited longer than its slack ages past new critical calls instead of starving.
+public class DispatchQueue {
+    // Indexed by severity (1: Critical, 2: Urgent, 3: Non-Urgent)
+    static final long[] AGING_SLACK_MILLIS = {0, 0, 2 * 60_000, 10 * 60_000};
+    static final int WAIT_SAMPLES = 4096;
+
+    static class Request {
+        final Patient patient;
+        final int severity;
+        final long enqueuedAt;
+        final long priorityKey;
+        final long seq;
+        final String submittedBy; // role of whoever took the call, for the record; may be null
+        volatile boolean assigned;
+
+        Request(Patient patient, int severity, long enqueuedAt, long seq, String submittedBy) {
+            this.patient = patient;
+            this.severity = severity;
+            this.enqueuedAt = enqueuedAt;
+            this.priorityKey = enqueuedAt + AGING_SLACK_MILLIS[severity];
+            this.seq = seq;
+            this.submittedBy = submittedBy;
+        }
+    }
+
+    private final PriorityQueue<Request> queue = new PriorityQueue<>((a, b) ->
+            a.priorityKey != b.priorityKey ? Long.compare(a.priorityKey, b.priorityKey) : Long.compare(a.seq, b.seq));
+    private long seq;
+
+    // Ring of the most recent queue wait times, for percentiles
+    private final long[] waits = new long[WAIT_SAMPLES];
+    private long waitCount;
+
+    synchronized Request offer(Patient patient, long now) {
+        return offer(patient, now, null);
+    }
+
+    synchronized Request offer(Patient patient, long now, String submittedBy) {
+        int severity = Math.max(1, Math.min(3, patient.getSeverity()));
+        Request request = new Request(patient, severity, now, seq++, submittedBy);
+        queue.add(request);
+        return request;
+    }
+
+    // Puts back a request that could not be served (or was pre-empted); it keeps its original priority
+    synchronized void requeue(Request request) {
+        request.assigned = false;
+        queue.add(request);
+    }
+
+    // Removes up to max requests, highest priority first
+    synchronized List<Request> pollBatch(int max) {
+        List<Request> batch = new ArrayList<>(Math.min(max, queue.size()));
+        while (batch.size() < max && !queue.isEmpty()) {
+            batch.add(queue.poll());
+        }
+        return batch;
+    }
+
+    synchronized void recordAssigned(Request request, long now) {
+        request.assigned = true;
+        waits[(int) (waitCount++ % WAIT_SAMPLES)] = now - request.enqueuedAt;
+    }
+
+    synchronized int depth() {
+        return queue.size();
+    }
+
+    // Wait time in millis at percentile p (0-100) over the most recent assignments, 0 if none yet
+    synchronized long waitPercentile(double p) {
+        int n = (int) Math.min(waitCount, WAIT_SAMPLES);
+        if (n == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(waits, n);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p / 100.0 * n) - 1;
+        return sorted[Math.max(0, Math.min(n - 1, index))];
+    }
+}
@@ -0,0 +1,92 @@
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+// One entry of the request history: an emergency dispatch or an inter-hospital transfer.
+// Immutable; fields that do not apply to the record's type are null.
+public final class DispatchRecord {
+    enum Type {
+        EMERGENCY_REQUEST,
+        TRANSFER_REQUEST
+    }
+
+    final Type type;
+    final long timeMillis; // Epoch millis
+    final String patientName;
+    final String ambulanceId;
+    final String status;
+    final String userRole;
+    // EMERGENCY_REQUEST
+    final String patientArea;
+    final int severity;
+    final String description;
+    final String injuryType;
+    final String hospitalName;
+    final String assignedDoctor;
+    // TRANSFER_REQUEST
+    final String fromHospital;
+    final String toHospital;
+    final String reason;
+
+    DispatchRecord(Type type, long timeMillis, String patientName, String ambulanceId, String status, String userRole,
+                   String patientArea, int severity, String description, String injuryType, String hospitalName,
+                   String assignedDoctor, String fromHospital, String toHospital, String reason) {
+        this.type = type;
+        this.timeMillis = timeMillis;
+        this.patientName = patientName;
+        this.ambulanceId = ambulanceId;
+        this.status = status;
+        this.userRole = userRole;
+        this.patientArea = patientArea;
+        this.severity = severity;
+        this.description = description;
+        this.injuryType = injuryType;
+        this.hospitalName = hospitalName;
+        this.assignedDoctor = assignedDoctor;
+        this.fromHospital = fromHospital;
+        this.toHospital = toHospital;
+        this.reason = reason;
+    }
+
+    static DispatchRecord emergency(long timeMillis, Patient patient, String ambulanceId, String hospitalName,
+                                    String assignedDoctor, String status, String userRole) {
+        return new DispatchRecord(Type.EMERGENCY_REQUEST, timeMillis, patient.getName(), ambulanceId, status, userRole,
+                patient.getArea(), patient.getSeverity(), patient.getEmergencyDescription(), patient.getInjuryType(),
+                hospitalName, assignedDoctor, null, null, null);
+    }
+
+    static DispatchRecord transfer(long timeMillis, String patientName, String fromHospital, String toHospital,
+                                   String reason, String ambulanceId, String status, String userRole) {
+        return new DispatchRecord(Type.TRANSFER_REQUEST, timeMillis, patientName, ambulanceId, status, userRole,
+                null, 0, null, null, null, null, fromHospital, toHospital, reason);
+    }
+
+    LocalDateTime time() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(timeMillis), ZoneId.systemDefault());
+    }
+
+    // Prints the record as "key: value" lines, skipping fields that do not apply
+    void print(PrintStream out) {
+        out.println("type: " + type);
+        out.println("time: " + time());
+        out.println("patientName: " + patientName);
+        if (type == Type.EMERGENCY_REQUEST) {
+            out.println("patientArea: " + patientArea);
+            out.println("severity: " + severity);
+            out.println("description: " + description);
+            out.println("injuryType: " + injuryType);
+            out.println("hospitalName: " + hospitalName);
+            if (assignedDoctor != null) {
+                out.println("assignedDoctor: " + assignedDoctor);
+            }
+        } else {
+            out.println("fromHospital: " + fromHospital);
+            out.println("toHospital: " + toHospital);
+            out.println("reason: " + reason);
+        }
+        out.println("ambulanceId: " + ambulanceId);
+        out.println("status: " + status);
+        out.println("userRole: " + userRole);
+    }
+}
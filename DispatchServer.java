@@ -0,0 +1,466 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// JSON over HTTP in front of a DispatchService, for remote consoles:
+//   POST /request      {"name", "area", "severity", "description", "injury"}
+//   POST /assign       {"patient", "ambulance", "location", "reason"}
+//   POST /status       {"ambulance", "status"}
+//   POST /transfer     {"patient", "from", "to", "reason"}
+//   GET  /availability
+//   GET  /metrics      the service's Metrics dump, as plain text
+// The caller's role comes from the X-Role header (DISPATCHER if absent). Nothing authenticates it,
+// so the header is only to be trusted behind a proxy that authenticates callers and sets it; the
+// server listens on the loopback interface unless a bind address is given explicitly. Every reply
+// carries the Result's status and message; the HTTP code follows the status (202 for a queued
+// call, 403 for a denied one, and so on). Requests run one per virtual thread where the JVM has them (Java 21+),
+// so thousands of open connections cost no more than thousands of small objects; older JVMs get
+// a fixed pool of platform threads instead.
+// Usage: java DispatchServer [port] [region] [--bind=<address>]; without a region it serves a
+// SyntheticCity.
+public class DispatchServer {
+    static final int DEFAULT_PORT = 8080;
+    static final int BACKLOG = 1024;            // Connections the OS queues while all are busy
+    static final int FALLBACK_THREADS = 64;     // Request threads when there are no virtual threads
+    static final int MAX_BODY_BYTES = 64 * 1024;
+
+    // One endpoint: the parsed JSON body (empty for GET) and the caller's session in, a reply out
+    private interface Endpoint {
+        Reply handle(Map<String, String> body, DispatchService.Session session);
+    }
+
+    private static final class Reply {
+        static final String JSON = "application/json; charset=utf-8";
+
+        final int code;
+        final String contentType;
+        final String body;
+
+        Reply(int code, String json) {
+            this(code, JSON, json);
+        }
+
+        Reply(int code, String contentType, String body) {
+            this.code = code;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    private final DispatchService service;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean virtual; // one virtual thread per request, rather than a pool
+
+    // Listens on the loopback interface only
+    public DispatchServer(DispatchService service, int port) throws IOException {
+        this(service, InetAddress.getLoopbackAddress(), port);
+    }
+
+    // Listens on the given local address; a wildcard address (0.0.0.0) means every interface
+    public DispatchServer(DispatchService service, InetAddress bindAddress, int port) throws IOException {
+        this.service = service;
+        this.server = HttpServer.create(new InetSocketAddress(bindAddress, port), BACKLOG);
+        ExecutorService perRequest = virtualThreads();
+        this.virtual = perRequest != null;
+        this.executor = perRequest != null ? perRequest : Executors.newFixedThreadPool(FALLBACK_THREADS, r -> {
+            Thread t = new Thread(r, "dispatch-http");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        route("/request", "POST", this::request);
+        route("/assign", "POST", this::assign);
+        route("/status", "POST", this::status);
+        route("/transfer", "POST", this::transfer);
+        route("/availability", "GET", (body, session) -> availability());
+        route("/metrics", "GET", (body, session) -> new Reply(200, "text/plain; charset=utf-8", service.metrics.dump()));
+    }
+
+    void start() {
+        server.start();
+    }
+
+    // Stops accepting, gives exchanges in progress up to a second to finish
+    void stop() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    InetAddress bindAddress() {
+        return server.getAddress().getAddress();
+    }
+
+    boolean usesVirtualThreads() {
+        return virtual;
+    }
+
+    // A thread-per-task executor on virtual threads, or null before Java 21. Looked up by
+    // reflection so the code still builds and runs on Java 8.
+    static ExecutorService virtualThreads() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null; // Missing, or a preview feature that is switched off
+        }
+    }
+
+    private void route(String path, String method, Endpoint endpoint) {
+        server.createContext(path, exchange -> {
+            Reply reply;
+            try {
+                reply = serve(exchange, path, method, endpoint);
+            } catch (IllegalArgumentException e) {
+                reply = error(400, DispatchService.Result.Status.INVALID, e.getMessage());
+            } catch (RuntimeException e) {
+                reply = error(500, null, "Internal error: " + e);
+            }
+            byte[] bytes = reply.body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", reply.contentType);
+            exchange.sendResponseHeaders(reply.code, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+    }
+
+    private Reply serve(HttpExchange exchange, String path, String method, Endpoint endpoint) throws IOException {
+        if (!exchange.getRequestURI().getPath().equals(path)) {
+            return error(404, DispatchService.Result.Status.NOT_FOUND, "No such endpoint.");
+        }
+        if (!exchange.getRequestMethod().equalsIgnoreCase(method)) {
+            exchange.getResponseHeaders().set("Allow", method);
+            return error(405, DispatchService.Result.Status.INVALID, path + " takes " + method + ".");
+        }
+        String roleHeader = exchange.getRequestHeaders().getFirst("X-Role");
+        UserRole role;
+        try {
+            role = roleHeader == null ? UserRole.DISPATCHER : UserRole.valueOf(roleHeader.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown role " + roleHeader + ".");
+        }
+        Map<String, String> body = method.equals("POST") ? parseObject(readBody(exchange.getRequestBody())) : new HashMap<>();
+        return endpoint.handle(body, service.openSession(role));
+    }
+
+    private Reply request(Map<String, String> body, DispatchService.Session session) {
+        int severity;
+        try {
+            severity = Integer.parseInt(field(body, "severity"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Severity must be 1, 2 or 3.");
+        }
+        Patient patient = new Patient(field(body, "name"), field(body, "area"), severity,
+                optional(body, "description"), optional(body, "injury"));
+        DispatchService.Result<Dispatcher.Assignment> result = session.requestAmbulance(patient);
+        Dispatcher.Assignment a = result.value;
+        return reply(result, a == null ? "" : ",\"ambulance\":" + quote(a.ambulance.ambulanceId) +
+                ",\"hospital\":" + quote(a.hospital.getName()) + ",\"distance\":" + a.distance +
+                ",\"doctor\":" + (a.doctor == null ? "null" : quote(a.doctor.name)));
+    }
+
+    private Reply assign(Map<String, String> body, DispatchService.Session session) {
+        DispatchService.Result<Ambulance> result = session.assignManual(field(body, "patient"), field(body, "ambulance"),
+                field(body, "location"), optional(body, "reason"));
+        return reply(result, unitFields(result.value));
+    }
+
+    private Reply status(Map<String, String> body, DispatchService.Session session) {
+        AmbulanceState state = AmbulanceState.parse(field(body, "status"));
+        DispatchService.Result<Ambulance> result = session.updateStatus(field(body, "ambulance"), state);
+        return reply(result, unitFields(result.value));
+    }
+
+    private Reply transfer(Map<String, String> body, DispatchService.Session session) {
+        DispatchService.Result<Ambulance> result = session.requestTransfer(field(body, "patient"), field(body, "from"),
+                field(body, "to"), optional(body, "reason"));
+        return reply(result, unitFields(result.value));
+    }
+
+    private Reply availability() {
+        StringBuilder json = new StringBuilder("{\"status\":\"OK\",\"hospitals\":[");
+        boolean firstHospital = true;
+        for (Hospital h : service.availability()) {
+            json.append(firstHospital ? "" : ",").append("{\"name\":").append(quote(h.getName()))
+                    .append(",\"free\":").append(h.freeAmbulanceCount()).append(",\"units\":[");
+            firstHospital = false;
+            boolean firstUnit = true;
+            for (Ambulance amb : h.getAmbulances()) {
+                json.append(firstUnit ? "" : ",").append("{\"id\":").append(quote(amb.ambulanceId))
+                        .append(",\"status\":").append(quote(amb.getStatus())).append('}');
+                firstUnit = false;
+            }
+            json.append("]}");
+        }
+        return new Reply(200, json.append("]}").toString());
+    }
+
+    private static String unitFields(Ambulance amb) {
+        return amb == null ? "" : ",\"ambulance\":" + quote(amb.ambulanceId) + ",\"state\":" + quote(amb.getStatus());
+    }
+
+    private static Reply reply(DispatchService.Result<?> result, String fields) {
+        return new Reply(httpCode(result.status), "{\"status\":" + quote(result.status.name()) +
+                ",\"message\":" + quote(result.message) + fields + "}");
+    }
+
+    private static Reply error(int code, DispatchService.Result.Status status, String message) {
+        return new Reply(code, "{\"status\":" + quote(status == null ? "ERROR" : status.name()) + ",\"message\":" + quote(message) + "}");
+    }
+
+    static int httpCode(DispatchService.Result.Status status) {
+        switch (status) {
+            case OK:
+                return 200;
+            case QUEUED:
+                return 202;
+            case DENIED:
+                return 403;
+            case NOT_FOUND:
+                return 404;
+            case INVALID:
+                return 400;
+            default:
+                return 409; // UNAVAILABLE: well-formed, but nothing free or reachable right now
+        }
+    }
+
+    private static String field(Map<String, String> body, String name) {
+        String value = body.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing field \"" + name + "\".");
+        }
+        return value;
+    }
+
+    private static String optional(Map<String, String> body, String name) {
+        String value = body.get(name);
+        return value == null ? "" : value;
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n; (n = in.read(buffer)) != -1; ) {
+            bytes.write(buffer, 0, n);
+            if (bytes.size() > MAX_BODY_BYTES) {
+                throw new IllegalArgumentException("Body larger than " + MAX_BODY_BYTES + " bytes.");
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // JSON string literal
+    static String quote(String s) {
+        if (s == null) {
+            return "null";
+        }
+        StringBuilder out = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    // A flat JSON object whose values are strings, numbers, booleans or null, as field -> text
+    // (null values are left out). Anything else is an IllegalArgumentException.
+    static Map<String, String> parseObject(String json) {
+        Map<String, String> fields = new HashMap<>();
+        int[] pos = {skipSpace(json, 0)};
+        expect(json, pos, '{');
+        if (peek(json, pos) == '}') {
+            pos[0]++;
+        } else {
+            while (true) {
+                String name = parseString(json, pos);
+                expect(json, pos, ':');
+                String value = parseValue(json, pos);
+                if (value != null) {
+                    fields.put(name, value);
+                }
+                char c = peek(json, pos);
+                pos[0]++;
+                if (c == '}') {
+                    break;
+                }
+                if (c != ',') {
+                    throw new IllegalArgumentException("Malformed JSON at offset " + (pos[0] - 1) + ".");
+                }
+            }
+        }
+        if (skipSpace(json, pos[0]) != json.length()) {
+            throw new IllegalArgumentException("Trailing characters after the JSON object.");
+        }
+        return fields;
+    }
+
+    private static String parseValue(String json, int[] pos) {
+        char c = peek(json, pos);
+        if (c == '"') {
+            return parseString(json, pos);
+        }
+        int start = pos[0];
+        while (pos[0] < json.length() && "+-.0123456789eEtrufalsn".indexOf(json.charAt(pos[0])) >= 0) {
+            pos[0]++;
+        }
+        String literal = json.substring(start, pos[0]);
+        if (literal.equals("null")) {
+            return null;
+        }
+        if (literal.equals("true") || literal.equals("false") || literal.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?")) {
+            return literal;
+        }
+        throw new IllegalArgumentException("Unsupported JSON value at offset " + start + ".");
+    }
+
+    private static String parseString(String json, int[] pos) {
+        expect(json, pos, '"');
+        StringBuilder out = new StringBuilder();
+        while (pos[0] < json.length()) {
+            char c = json.charAt(pos[0]++);
+            if (c == '"') {
+                return out.toString();
+            }
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            if (pos[0] >= json.length()) {
+                break;
+            }
+            char e = json.charAt(pos[0]++);
+            switch (e) {
+                case 'b':
+                    out.append('\b');
+                    break;
+                case 'f':
+                    out.append('\f');
+                    break;
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'u':
+                    if (pos[0] + 4 > json.length()) {
+                        throw new IllegalArgumentException("Truncated \\u escape.");
+                    }
+                    try {
+                        out.append((char) Integer.parseInt(json.substring(pos[0], pos[0] + 4), 16));
+                    } catch (NumberFormatException ex) {
+                        throw new IllegalArgumentException("Bad \\u escape at offset " + pos[0] + ".");
+                    }
+                    pos[0] += 4;
+                    break;
+                default:
+                    out.append(e); // \" \\ \/
+            }
+        }
+        throw new IllegalArgumentException("Unterminated JSON string.");
+    }
+
+    private static void expect(String json, int[] pos, char c) {
+        if (peek(json, pos) != c) {
+            throw new IllegalArgumentException("Expected '" + c + "' at offset " + pos[0] + ".");
+        }
+        pos[0]++;
+    }
+
+    // Next non-space character, with pos moved onto it; 0 at the end of the text
+    private static char peek(String json, int[] pos) {
+        pos[0] = skipSpace(json, pos[0]);
+        return pos[0] < json.length() ? json.charAt(pos[0]) : 0;
+    }
+
+    private static int skipSpace(String json, int i) {
+        while (i < json.length() && Character.isWhitespace(json.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    public static void main(String[] args) throws IOException {
+        InetAddress bindAddress = InetAddress.getLoopbackAddress();
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--bind=")) {
+                bindAddress = InetAddress.getByName(arg.substring("--bind=".length()));
+            } else {
+                positional.add(arg);
+            }
+        }
+        int port = positional.size() > 0 ? Integer.parseInt(positional.get(0)) : DEFAULT_PORT;
+        HospitalBST hospitals;
+        RoadGraph roads;
+        if (positional.size() > 1) {
+            Region region = Region.open(Paths.get(positional.get(1)));
+            hospitals = region.hospitals;
+            roads = region.roads;
+            roads.useHierarchy(Region.openHierarchy(Paths.get(positional.get(1)), roads));
+        } else {
+            SyntheticCity city = new SyntheticCity(1, 100, 50, 4);
+            hospitals = city.hospitals;
+            roads = city.roads;
+        }
+        AmbulanceLifecycle lifecycle = new AmbulanceLifecycle(new AmbulanceLifecycle.RealTimeScheduler(),
+                AmbulanceLifecycle.DEFAULT_LEG_MILLIS, false);
+        DispatchService service = new DispatchService(hospitals, roads, lifecycle, null);
+        service.start();
+        DispatchServer server = new DispatchServer(service, bindAddress, port);
+        server.start();
+        System.out.println("Serving " + roads.nodeCount() + " locations and " + hospitals.size() + " hospitals on " +
+                server.bindAddress().getHostAddress() + " port " + server.port() + (server.usesVirtualThreads() ? ", a virtual thread per request." :
+                ", " + FALLBACK_THREADS + " request threads (no virtual threads on this JVM)."));
+    }
+}
@@ -0,0 +1,484 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+
+// The dispatch operations behind the console, without the console: one instance per set of
+// hospitals and roads, safe to use from any number of threads. Operators work through a
+// Session, which carries their role; many sessions can run against one service at once.
+// Nothing here reads input or prints. Operations return a Result, and every assignment
+// (including those the background loop makes) goes to the registered listeners.
+public class DispatchService {
+    static final int HISTORY_CAPACITY = 50;
+    static final long LOOP_MILLIS = 1000; // Retry interval for calls that are still queued
+
+    // What each role may do; calling for an ambulance is open to everyone
+    enum Operation {
+        ASSIGN_MANUAL(UserRole.DISPATCHER, UserRole.ADMIN),
+        UPDATE_STATUS(UserRole.DISPATCHER, UserRole.ADMIN, UserRole.HOSPITAL_STAFF),
+        TRANSFER(UserRole.DISPATCHER, UserRole.ADMIN, UserRole.HOSPITAL_STAFF),
+        UPDATE_DOCTOR(UserRole.ADMIN, UserRole.HOSPITAL_STAFF),
+        UPDATE_ROAD(UserRole.ADMIN),
+        UPDATE_TRAFFIC(UserRole.DISPATCHER, UserRole.ADMIN);
+
+        private final EnumSet<UserRole> roles;
+
+        Operation(UserRole first, UserRole... rest) {
+            this.roles = EnumSet.of(first, rest);
+        }
+
+        boolean allows(UserRole role) {
+            return roles.contains(role);
+        }
+    }
+
+    // Outcome of an operation: a status, a line for an operator and, when it worked, the thing it acted on
+    static final class Result<T> {
+        enum Status {
+            OK,
+            QUEUED,      // accepted, waiting for a free unit
+            DENIED,      // the session's role may not do this
+            NOT_FOUND,   // no such ambulance, hospital, doctor or road
+            INVALID,     // malformed input or a move the state machine does not allow
+            UNAVAILABLE  // nothing free or reachable to do it with
+        }
+
+        final Status status;
+        final String message;
+        final T value;
+
+        private Result(Status status, String message, T value) {
+            this.status = status;
+            this.message = message;
+            this.value = value;
+        }
+
+        static <T> Result<T> ok(T value, String message) {
+            return new Result<>(Status.OK, message, value);
+        }
+
+        static <T> Result<T> fail(Status status, String message) {
+            return new Result<>(status, message, null);
+        }
+
+        boolean ok() {
+            return status == Status.OK;
+        }
+
+        @Override
+        public String toString() {
+            return message;
+        }
+    }
+
+    final HospitalBST hospitals;
+    final RoadGraph roads;
+    final AmbulanceLifecycle lifecycle;
+    final NearestHospitalIndex nearestHospitals;
+    final TrafficModel traffic;
+    final Dispatcher dispatcher;
+    final Metrics metrics = new Metrics(); // Registered over JMX while started
+    final RequestHistory requestHistory = new RequestHistory(HISTORY_CAPACITY); // Recent requests, in memory
+    private final DispatchJournal journal; // Complete audit trail on disk, null if there is none
+    private final AtomicLong journalFailures = new AtomicLong();
+    private final Map<String, String> assignedAmbulances = new ConcurrentHashMap<>(); // ambulance id -> patient it last went to
+    private final List<Dispatcher.Listener> listeners = new CopyOnWriteArrayList<>();
+    private DistanceMatrix hospitalDistances; // Built on first use, rebuilt after road changes
+    private volatile PositionFeed positionFeed;
+
+    public DispatchService(HospitalBST hospitals, RoadGraph roads, AmbulanceLifecycle lifecycle, DispatchJournal journal) {
+        this.hospitals = hospitals;
+        this.roads = roads;
+        this.lifecycle = lifecycle;
+        this.journal = journal;
+        roads.useMetrics(metrics); // First, so the searches building the indexes below are counted
+        this.nearestHospitals = new NearestHospitalIndex(roads, hospitals);
+        this.traffic = new TrafficModel(roads);
+        this.dispatcher = new Dispatcher(new DispatchQueue(), nearestHospitals, lifecycle, new Dispatcher.Listener() {
+            @Override
+            public void assigned(Dispatcher.Assignment assignment) {
+                recordAssignment(assignment);
+                for (Dispatcher.Listener listener : listeners) {
+                    listener.assigned(assignment);
+                }
+            }
+
+            @Override
+            public void preempted(Dispatcher.Assignment displaced, Dispatcher.Assignment by) {
+                for (Dispatcher.Listener listener : listeners) {
+                    listener.preempted(displaced, by);
+                }
+            }
+        });
+        HospitalScorer scorer = new HospitalScorer(roads, hospitals);
+        BatchAssigner batchAssigner = new BatchAssigner(roads, hospitals);
+        batchAssigner.useScorer(scorer);
+        dispatcher.useBatchAssigner(batchAssigner);
+        dispatcher.useScorer(scorer);
+        if (roads.hasCoordinates()) {
+            dispatcher.useLivePositions(roads);
+        }
+        dispatcher.useMetrics(metrics);
+        registerGauges();
+    }
+
+    // Free and busy units per hospital and over the fleet, and the calls still waiting
+    private void registerGauges() {
+        List<Hospital> all = hospitals.getSortedHospitals();
+        for (Hospital h : all) {
+            metrics.gauge("hospital." + h.getName() + ".free", h::freeAmbulanceCount);
+            metrics.gauge("hospital." + h.getName() + ".busy", () -> h.getAmbulances().size() - h.freeAmbulanceCount());
+        }
+        metrics.gauge("fleet.free", () -> {
+            long free = 0;
+            for (Hospital h : all) {
+                free += h.freeAmbulanceCount();
+            }
+            return free;
+        });
+        metrics.gauge("fleet.busy", () -> {
+            long busy = 0;
+            for (Hospital h : all) {
+                busy += h.getAmbulances().size() - h.freeAmbulanceCount();
+            }
+            return busy;
+        });
+        metrics.gauge("dispatch.queue_depth", () -> dispatcher.queue().depth());
+    }
+
+    void addListener(Dispatcher.Listener listener) {
+        listeners.add(listener);
+    }
+
+    // Starts the background work: retrying queued calls and following the traffic profiles' hours
+    void start() {
+        dispatcher.startLoop(LOOP_MILLIS);
+        followTrafficHours();
+        try {
+            metrics.register("DispatchService");
+        } catch (JMException e) {
+            // Still readable through metrics.dump()
+        }
+    }
+
+    void shutdown() {
+        dispatcher.stopLoop();
+        metrics.unregister();
+        PositionFeed feed = positionFeed;
+        if (feed != null) {
+            feed.stop();
+        }
+        lifecycle.shutdown();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                journalFailures.incrementAndGet();
+            }
+        }
+    }
+
+    Session openSession(UserRole role) {
+        return new Session(role);
+    }
+
+    // One operator working the service. The role can change during the session; operations
+    // check it when they run. Any number of sessions can be used in parallel.
+    final class Session {
+        private volatile UserRole role;
+
+        private Session(UserRole role) {
+            this.role = role;
+        }
+
+        UserRole role() {
+            return role;
+        }
+
+        void setRole(UserRole role) {
+            this.role = role;
+        }
+
+        boolean may(Operation operation) {
+            return operation.allows(role);
+        }
+
+        // Queues the call by severity and runs a dispatch pass right away; if nothing is free nearby
+        // the call stays queued (QUEUED) and the background loop retries it. The value is null when
+        // a pass running in another session made the assignment; listeners see it either way.
+        Result<Dispatcher.Assignment> requestAmbulance(Patient patient) {
+            long start = System.nanoTime();
+            try {
+                return dispatch(patient);
+            } finally {
+                metrics.requestNanos.record(System.nanoTime() - start);
+            }
+        }
+
+        private Result<Dispatcher.Assignment> dispatch(Patient patient) {
+            DispatchQueue.Request request = dispatcher.submit(patient, role.toString());
+            if (request == null) {
+                return Result.fail(Result.Status.UNAVAILABLE, "No hospital reachable from " + patient.getArea() + ".");
+            }
+            for (Dispatcher.Assignment assignment : dispatcher.dispatchPending(Dispatcher.DEFAULT_BATCH)) {
+                if (assignment.request == request) {
+                    return Result.ok(assignment, "Ambulance " + assignment.ambulance.ambulanceId + " assigned to " + patient.getName() + ".");
+                }
+            }
+            if (request.assigned) {
+                return Result.ok(null, "Ambulance assigned to " + patient.getName() + ".");
+            }
+            return Result.fail(Result.Status.QUEUED, "No suitable ambulances available at the nearest hospitals. Request queued (" +
+                    dispatcher.queue().depth() + " waiting).");
+        }
+
+        // Claims a specific free unit for a patient, outside the dispatch queue
+        Result<Ambulance> assignManual(String patientName, String ambulanceId, String location, String reason) {
+            if (!may(Operation.ASSIGN_MANUAL)) {
+                return denied();
+            }
+            Ambulance ambulance = ambulance(ambulanceId);
+            if (ambulance == null || !ambulance.tryAcquire()) {
+                return Result.fail(Result.Status.UNAVAILABLE, "Ambulance not found or not available.");
+            }
+            Hospital nearestHospital = nearestHospitals.nearest(location);
+            String nearestHospitalName = nearestHospital == null ? null : nearestHospital.getName();
+            int minDistance = nearestHospitals.nearestDistance(location);
+            ambulance.setDispatchNanos(lifecycle.nowNanos());
+            assignedAmbulances.put(ambulance.ambulanceId, patientName);
+            return Result.ok(ambulance, "Ambulance " + ambulanceId + " manually assigned to patient " + patientName + " at " + location +
+                    ".  Nearest Hospital: " + nearestHospitalName + " Distance: " + minDistance + " Reason: " + reason);
+        }
+
+        // Moves a unit by hand, within the moves the state machine allows
+        Result<Ambulance> updateStatus(String ambulanceId, AmbulanceState newStatus) {
+            if (!may(Operation.UPDATE_STATUS)) {
+                return denied();
+            }
+            Ambulance ambulance = ambulance(ambulanceId);
+            if (ambulance == null) {
+                return Result.fail(Result.Status.NOT_FOUND, "Ambulance not found.");
+            }
+            if (newStatus == null) {
+                return Result.fail(Result.Status.INVALID, "Unknown status.");
+            }
+            AmbulanceState oldStatus = ambulance.state();
+            // Taking the unit over by hand drops whatever the simulation had scheduled for it
+            boolean moved = newStatus == AmbulanceState.AVAILABLE ? ambulance.release() : ambulance.transition(newStatus) != -1;
+            if (!moved) {
+                return Result.fail(Result.Status.INVALID, "Ambulance " + ambulanceId + " cannot go from " + oldStatus + " to " + newStatus + ".");
+            }
+            dispatcher.takenOver(ambulance);
+            if (newStatus == AmbulanceState.AVAILABLE) {
+                ambulance.setDispatchNanos(0);
+                ambulance.setArrivalNanos(0);
+            } else if (newStatus == AmbulanceState.DISPATCHED && ambulance.getDispatchNanos() == 0) {
+                ambulance.setDispatchNanos(lifecycle.nowNanos());
+            } else if (newStatus == AmbulanceState.AT_HOSPITAL && ambulance.getArrivalNanos() == 0) {
+                ambulance.setArrivalNanos(lifecycle.nowNanos());
+            }
+            return Result.ok(ambulance, "Ambulance " + ambulanceId + " status updated to: " + newStatus);
+        }
+
+        // Sends a free unit of one hospital to another with a patient
+        Result<Ambulance> requestTransfer(String patientName, String fromHospital, String toHospital, String reason) {
+            if (!may(Operation.TRANSFER)) {
+                return denied();
+            }
+            Hospital currentHospital = hospital(fromHospital);
+            Hospital destinationHospital = hospital(toHospital);
+            if (currentHospital == null || destinationHospital == null) {
+                return Result.fail(Result.Status.NOT_FOUND, "Invalid hospital name(s).");
+            }
+            Ambulance transferAmbulance = currentHospital.getAvailableAmbulance();
+            if (transferAmbulance == null) {
+                return Result.fail(Result.Status.UNAVAILABLE, "No available ambulances at " + fromHospital + " for transfer.");
+            }
+            int claim = transferAmbulance.generation();
+            if (transferAmbulance.transition(AmbulanceState.TRANSFERRING) == -1) {
+                transferAmbulance.advance(claim, AmbulanceState.AVAILABLE); // Back to the pool unless someone else has moved it
+                return Result.fail(Result.Status.UNAVAILABLE, "Ambulance " + transferAmbulance.ambulanceId + " could not start the transfer (" +
+                        transferAmbulance.getStatus() + ").");
+            }
+            assignedAmbulances.put(transferAmbulance.ambulanceId, patientName);
+            record(DispatchRecord.transfer(lifecycle.scheduler().nowMillis(), patientName, fromHospital, toHospital, reason,
+                    transferAmbulance.ambulanceId, transferAmbulance.getStatus(), role.toString()));
+
+            Route route = roads.route(currentHospital.getName(), destinationHospital.getName());
+            lifecycle.transfer(transferAmbulance, destinationHospital);
+            return Result.ok(transferAmbulance, "Ambulance " + transferAmbulance.ambulanceId + " dispatched for transfer from " +
+                    fromHospital + " to " + toHospital + ". Reason: " + reason + "\n" +
+                    (route != null ? "Route: " + route : "No road route between the hospitals."));
+        }
+
+        // Action is OnShift, OffShift or Discharge (one patient fewer)
+        Result<Doctor> updateDoctor(String doctorName, String action) {
+            if (!may(Operation.UPDATE_DOCTOR)) {
+                return denied();
+            }
+            Doctor doctor = doctor(doctorName);
+            if (doctor == null) {
+                return Result.fail(Result.Status.NOT_FOUND, "Doctor not found.");
+            }
+            if (action.equalsIgnoreCase("OnShift")) {
+                doctor.onShift = true;
+            } else if (action.equalsIgnoreCase("OffShift")) {
+                doctor.onShift = false;
+            } else if (action.equalsIgnoreCase("Discharge")) {
+                doctor.discharge();
+            } else {
+                return Result.fail(Result.Status.INVALID, "Unknown action.");
+            }
+            return Result.ok(doctor, "Doctor updated: " + doctor);
+        }
+
+        // New base length of a road; the nearest-hospital table repairs itself
+        Result<Void> updateRoadDistance(String from, String to, int km) {
+            if (!may(Operation.UPDATE_ROAD)) {
+                return denied();
+            }
+            if (!traffic.setLength(from, to, km)) {
+                return Result.fail(Result.Status.NOT_FOUND, "No direct road from " + from + " to " + to + ".");
+            }
+            return Result.ok(null, "Road " + from + " -> " + to + " updated to " + km + " km.");
+        }
+
+        // Input is a congestion multiplier (e.g. 1.5), Close or Reopen
+        Result<Void> updateTraffic(String from, String to, String input) {
+            if (!may(Operation.UPDATE_TRAFFIC)) {
+                return denied();
+            }
+            boolean updated;
+            if (input.equalsIgnoreCase("Close")) {
+                updated = traffic.close(from, to);
+            } else if (input.equalsIgnoreCase("Reopen")) {
+                updated = traffic.reopen(from, to);
+            } else {
+                try {
+                    updated = traffic.setCongestion(from, to, Double.parseDouble(input));
+                } catch (NumberFormatException e) {
+                    return Result.fail(Result.Status.INVALID, "Invalid multiplier.");
+                }
+            }
+            if (!updated) {
+                return Result.fail(Result.Status.NOT_FOUND, "No direct road from " + from + " to " + to + ".");
+            }
+            return Result.ok(null, "Road " + from + " -> " + to + (traffic.isClosed(from, to) ? " closed." :
+                    " congestion now x" + traffic.congestion(from, to) + "."));
+        }
+
+        private <T> Result<T> denied() {
+            return Result.fail(Result.Status.DENIED, "Insufficient permissions for this action.");
+        }
+    }
+
+    // Hospitals in id order; their units' states are live
+    List<Hospital> availability() {
+        return hospitals.getSortedHospitals();
+    }
+
+    List<DispatchRecord> recentRequests() {
+        return requestHistory.recent();
+    }
+
+    Ambulance ambulance(String id) {
+        return hospitals.registry.ambulance(id);
+    }
+
+    Hospital hospital(String name) {
+        return hospitals.registry.hospital(name);
+    }
+
+    Doctor doctor(String name) {
+        return hospitals.registry.specializations.doctor(name);
+    }
+
+    // Patient the unit was last sent to, or null
+    String assignedPatient(String ambulanceId) {
+        return assignedAmbulances.get(ambulanceId);
+    }
+
+    Hospital nearestWithFreeDoctor(String area, String injuryType) {
+        return nearestHospitals.nearestWithFreeDoctor(area, injuryType);
+    }
+
+    // Starts from a stored matrix, e.g. the region's, instead of computing one on first use
+    synchronized void useDistanceMatrix(DistanceMatrix matrix) {
+        hospitalDistances = matrix;
+    }
+
+    // Location x hospital distances, recomputed in parallel after any road change
+    synchronized DistanceMatrix distanceMatrix() {
+        if (hospitalDistances == null || !hospitalDistances.isFresh()) {
+            hospitalDistances = DistanceMatrix.build(roads, hospitals);
+        }
+        return hospitalDistances;
+    }
+
+    long journalFailures() {
+        return journalFailures.get();
+    }
+
+    // Units start at their hospital; a GPS feed (a file that is followed, or a TCP port) moves them.
+    // Returns the feed, or null without a source.
+    PositionFeed startPositionFeed(String source) throws IOException {
+        for (Hospital h : hospitals) {
+            int node = roads.id(h.getName());
+            if (node == -1) {
+                continue;
+            }
+            for (Ambulance amb : h.getAmbulances()) {
+                if (!amb.hasPosition()) {
+                    amb.setPosition(roads.latitude(node), roads.longitude(node));
+                }
+            }
+        }
+        if (source == null) {
+            return null;
+        }
+        PositionFeed feed = new PositionFeed(hospitals.registry);
+        if (source.matches("\\d+")) {
+            feed.listen(Integer.parseInt(source));
+        } else {
+            feed.follow(Paths.get(source));
+        }
+        positionFeed = feed;
+        return feed;
+    }
+
+    private void recordAssignment(Dispatcher.Assignment assignment) {
+        Patient patient = assignment.request.patient;
+        Ambulance amb = assignment.ambulance;
+        assignedAmbulances.put(amb.ambulanceId, patient.getName());
+        String role = assignment.request.submittedBy != null ? assignment.request.submittedBy : UserRole.DISPATCHER.toString();
+        record(DispatchRecord.emergency(lifecycle.scheduler().nowMillis(), patient, amb.ambulanceId, assignment.hospital.getName(),
+                assignment.doctor == null ? null : assignment.doctor.name, amb.getStatus(), role));
+    }
+
+    // Keeps the record in the recent-requests ring and appends it to the journal
+    private void record(DispatchRecord record) {
+        requestHistory.add(record);
+        if (journal != null) {
+            try {
+                journal.append(record);
+                journal.flush();
+            } catch (IOException e) {
+                journalFailures.incrementAndGet();
+            }
+        }
+    }
+
+    // Re-applies time-of-day traffic profiles whenever the hour turns
+    private void followTrafficHours() {
+        int hour = lifecycle.now().getHour();
+        if (hour != traffic.hour()) {
+            traffic.applyHour(hour);
+        }
+        lifecycle.scheduler().schedule(this::followTrafficHours, 60 * 1000);
+    }
+}
@@ -0,0 +1,368 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Drains the DispatchQueue in batches and assigns ambulances, trying the k nearest
+// hospitals in order. A critical call that finds no free unit takes over the
+// ambulance of a lower-severity call that has not reached its scene yet; the
+// displaced call goes back on the queue with its original priority.
+public class Dispatcher {
+    static final int DEFAULT_BATCH = 32;
+
+    // Told about every assignment, including ones made by the background loop
+    interface Listener {
+        void assigned(Assignment assignment);
+
+        void preempted(Assignment displaced, Assignment by);
+    }
+
+    static class Assignment {
+        final DispatchQueue.Request request;
+        final Hospital hospital;
+        final Ambulance ambulance;
+        // Road km from the patient to the hospital (or the unit, if a nearer one was sent), the
+        // direction the patient is carried. Every path measures it this way, so they agree.
+        final int distance;
+        final Doctor doctor;
+
+        Assignment(DispatchQueue.Request request, Hospital hospital, Ambulance ambulance, int distance, Doctor doctor) {
+            this.request = request;
+            this.hospital = hospital;
+            this.ambulance = ambulance;
+            this.distance = distance;
+            this.doctor = doctor;
+        }
+    }
+
+    // A unit sent on a call, under the generation its trip started with. Once the unit's
+    // generation moves on (it was preempted, or taken over by hand) the record is stale.
+    private static final class Trip {
+        final Assignment assignment;
+        final int generation;
+
+        Trip(Assignment assignment, int generation) {
+            this.assignment = assignment;
+            this.generation = generation;
+        }
+
+        boolean isCurrent() {
+            return assignment.ambulance.generation() == generation;
+        }
+    }
+
+    private final DispatchQueue queue;
+    private final NearestHospitalIndex nearestHospitals;
+    private final AmbulanceLifecycle lifecycle;
+    private final Listener listener;
+    private final Map<Ambulance, Trip> trips = new ConcurrentHashMap<>(); // Units out on our calls, until handover
+    private BatchAssigner batchAssigner; // When set, batches are matched optimally across all hospitals
+    private HospitalScorer scorer; // When set, single calls go to the best-scoring hospital instead of the nearest
+    private RoadGraph liveGraph; // When set, a free unit out on the road can beat the hospital's own
+    private volatile Metrics metrics; // When set, selection times, assignments and response times are recorded
+    private ScheduledExecutorService loop;
+
+    public Dispatcher(DispatchQueue queue, NearestHospitalIndex nearestHospitals, AmbulanceLifecycle lifecycle, Listener listener) {
+        this.queue = queue;
+        this.nearestHospitals = nearestHospitals;
+        this.lifecycle = lifecycle;
+        this.listener = listener;
+    }
+
+    // Queues a call; returns null without queueing if no hospital can be reached from the area
+    DispatchQueue.Request submit(Patient patient) {
+        return submit(patient, null);
+    }
+
+    // Same, noting who took the call
+    DispatchQueue.Request submit(Patient patient, String submittedBy) {
+        if (nearestHospitals.nearest(patient.getArea()) == null) {
+            return null;
+        }
+        return queue.offer(patient, lifecycle.scheduler().nowMillis(), submittedBy);
+    }
+
+    void useBatchAssigner(BatchAssigner batchAssigner) {
+        this.batchAssigner = batchAssigner;
+    }
+
+    void useScorer(HospitalScorer scorer) {
+        this.scorer = scorer;
+    }
+
+    // Considers live unit positions: the free unit nearest the patient is sent instead of one
+    // from the chosen hospital's base when it is closer by road
+    void useLivePositions(RoadGraph graph) {
+        this.liveGraph = graph;
+    }
+
+    void useMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Assigns up to maxBatch queued requests; whatever cannot be served is queued again
+    synchronized List<Assignment> dispatchPending(int maxBatch) {
+        List<DispatchQueue.Request> batch = queue.pollBatch(maxBatch);
+        List<Assignment> assignments = new ArrayList<>(batch.size());
+        List<DispatchQueue.Request> unserved = new ArrayList<>();
+        List<DispatchQueue.Request> remaining = batch;
+        Metrics m = metrics;
+        // A lone call goes straight to the scorer, whose search stops at the first hospital that
+        // can serve it; matching would snapshot every free unit in the region for one call
+        if (batchAssigner != null && batch.size() > 1) {
+            long start = m == null ? 0 : System.nanoTime();
+            remaining = assignOptimal(batch, assignments);
+            if (m != null) {
+                m.batchMatchNanos.record(System.nanoTime() - start);
+            }
+        }
+        for (DispatchQueue.Request request : remaining) {
+            long start = m == null ? 0 : System.nanoTime();
+            Assignment assignment = assignFromNearest(request);
+            if (assignment != null && liveGraph != null) {
+                assignment = closerUnit(assignment);
+            }
+            if (assignment == null && request.severity == 1) {
+                assignment = preemptFor(request);
+            }
+            if (m != null) {
+                m.selectNanos.record(System.nanoTime() - start);
+            }
+            if (assignment == null) {
+                unserved.add(request);
+                continue;
+            }
+            launch(assignment);
+            assignments.add(assignment);
+        }
+        for (DispatchQueue.Request request : unserved) {
+            queue.requeue(request);
+        }
+        return assignments;
+    }
+
+    // Runs dispatchPending every intervalMillis on a daemon thread
+    synchronized void startLoop(long intervalMillis) {
+        if (loop != null) {
+            return;
+        }
+        loop = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dispatcher");
+            t.setDaemon(true);
+            return t;
+        });
+        loop.scheduleWithFixedDelay(() -> {
+            if (queue.depth() > 0) {
+                dispatchPending(DEFAULT_BATCH);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stopLoop() {
+        if (loop != null) {
+            loop.shutdownNow();
+            loop = null;
+        }
+    }
+
+    DispatchQueue queue() {
+        return queue;
+    }
+
+    // Min-cost matching of the whole batch; returns the requests it could not place, in order
+    private List<DispatchQueue.Request> assignOptimal(List<DispatchQueue.Request> batch, List<Assignment> assignments) {
+        Map<DispatchQueue.Request, Boolean> placed = new IdentityHashMap<>();
+        for (BatchAssigner.Match match : batchAssigner.assign(batch, batchAssigner.freeAmbulances())) {
+            Ambulance amb = match.ambulance;
+            if (!amb.tryAcquire()) {
+                continue; // Taken by someone else since the snapshot
+            }
+            Assignment assignment = new Assignment(match.request, amb.home, amb, match.distance,
+                    amb.home.getAssignedDoctor(match.request.patient.getInjuryType()));
+            launch(assignment);
+            assignments.add(assignment);
+            placed.put(match.request, Boolean.TRUE);
+        }
+        if (placed.isEmpty()) {
+            return batch;
+        }
+        if (placed.size() == batch.size()) {
+            return Collections.emptyList();
+        }
+        List<DispatchQueue.Request> remaining = new ArrayList<>(batch.size() - placed.size());
+        for (DispatchQueue.Request request : batch) {
+            if (!placed.containsKey(request)) {
+                remaining.add(request);
+            }
+        }
+        return remaining;
+    }
+
+    private Assignment assignFromNearest(DispatchQueue.Request request) {
+        String area = request.patient.getArea();
+        if (scorer != null) {
+            return assignBestScoring(request);
+        }
+        for (int i = 0; i < nearestHospitals.topK(); i++) {
+            Hospital hospital = nearestHospitals.nearest(area, i);
+            if (hospital == null) {
+                break;
+            }
+            Ambulance amb = hospital.getAvailableAmbulance(request.severity);
+            if (amb != null) {
+                return new Assignment(request, hospital, amb, nearestHospitals.nearestDistance(area, i),
+                        hospital.getAssignedDoctor(request.patient.getInjuryType()));
+            }
+        }
+        return null;
+    }
+
+    private Assignment assignBestScoring(DispatchQueue.Request request) {
+        String injuryType = request.patient.getInjuryType();
+        List<Hospital> tried = new ArrayList<>();
+        HospitalScorer.Candidate candidate;
+        while ((candidate = scorer.best(request.patient.getArea(), injuryType, tried)) != null) {
+            Ambulance amb = candidate.hospital.getAvailableAmbulance(request.severity);
+            if (amb != null) {
+                return new Assignment(request, candidate.hospital, amb, candidate.distance,
+                        candidate.hospital.getAssignedDoctor(injuryType));
+            }
+            tried.add(candidate.hospital); // Its last unit was taken meanwhile
+        }
+        return null;
+    }
+
+    // Swaps in the free unit nearest the patient if it is closer by road than the assigned one,
+    // which goes back to its pool; the patient still goes to the assigned hospital
+    private Assignment closerUnit(Assignment assignment) {
+        FleetTable fleet = assignment.hospital.fleet;
+        int patientNode = liveGraph.id(assignment.request.patient.getArea());
+        if (fleet == null || patientNode == -1 || !liveGraph.hasCoordinates()) {
+            return assignment;
+        }
+        Ambulance nearby = fleet.nearestFree(liveGraph.latitude(patientNode), liveGraph.longitude(patientNode));
+        if (nearby == null) {
+            return assignment;
+        }
+        int from = nearby.node(liveGraph);
+        Route route = from == -1 ? null : liveGraph.route(patientNode, from); // Same direction as assignment.distance
+        if (route == null || route.cost >= assignment.distance || !nearby.tryAcquire()) {
+            return assignment;
+        }
+        assignment.ambulance.release();
+        return new Assignment(assignment.request, assignment.hospital, nearby, route.cost, assignment.doctor);
+    }
+
+    // Takes the ambulance of the least urgent (then most recent) call still travelling to
+    // its scene, among units based at one of the patient's nearest hospitals
+    private Assignment preemptFor(DispatchQueue.Request request) {
+        String area = request.patient.getArea();
+        Trip victimTrip = null;
+        int victimDistance = DijkstraSearch.INF;
+        for (Trip trip : trips.values()) {
+            Assignment a = trip.assignment;
+            if (!trip.isCurrent()) {
+                abandon(trip); // Taken over by hand; its call must not be brought back
+                continue;
+            }
+            if (a.request.severity <= request.severity || a.ambulance.state() != AmbulanceState.EN_ROUTE) {
+                continue;
+            }
+            int distance = distanceTo(area, a.hospital);
+            if (distance == DijkstraSearch.INF) {
+                continue;
+            }
+            if (victimTrip == null || a.request.priorityKey > victimTrip.assignment.request.priorityKey) {
+                victimTrip = trip;
+                victimDistance = distance;
+            }
+        }
+        if (victimTrip == null || !trips.remove(victimTrip.assignment.ambulance, victimTrip)) {
+            return null;
+        }
+        Assignment victim = victimTrip.assignment;
+        if (!lifecycle.cancel(victim.ambulance, victimTrip.generation)) {
+            if (victimTrip.isCurrent()) {
+                trips.putIfAbsent(victim.ambulance, victimTrip); // Reached its scene meanwhile; the trip goes on
+            } else if (victim.doctor != null) {
+                victim.doctor.discharge(); // Taken over by hand meanwhile
+            }
+            return null;
+        }
+        if (victim.doctor != null) {
+            victim.doctor.discharge();
+        }
+        queue.requeue(victim.request);
+
+        Assignment assignment = new Assignment(request, victim.hospital, victim.ambulance, victimDistance,
+                victim.hospital.getAssignedDoctor(request.patient.getInjuryType()));
+        listener.preempted(victim, assignment);
+        Metrics m = metrics;
+        if (m != null) {
+            m.preemptions.increment();
+        }
+        return assignment;
+    }
+
+    // The unit was moved by hand. If that ended one of our trips before handover, the trip is
+    // forgotten and its doctor released, so the call is never preempted back into the queue.
+    void takenOver(Ambulance ambulance) {
+        Trip trip = trips.get(ambulance);
+        if (trip != null && !trip.isCurrent()) {
+            abandon(trip);
+        }
+    }
+
+    private void abandon(Trip trip) {
+        Assignment a = trip.assignment;
+        if (trips.remove(a.ambulance, trip) && a.doctor != null) {
+            a.doctor.discharge();
+        }
+    }
+
+    // Drops the unit's trip record for this assignment; true for the one caller that removed it
+    private boolean forget(Ambulance ambulance, Assignment assignment) {
+        Trip trip = trips.get(ambulance);
+        return trip != null && trip.assignment == assignment && trips.remove(ambulance, trip);
+    }
+
+    private int distanceTo(String area, Hospital hospital) {
+        for (int i = 0; i < nearestHospitals.topK(); i++) {
+            if (nearestHospitals.nearest(area, i) == hospital) {
+                return nearestHospitals.nearestDistance(area, i);
+            }
+        }
+        return DijkstraSearch.INF;
+    }
+
+    private void launch(Assignment assignment) {
+        Ambulance amb = assignment.ambulance;
+        queue.recordAssigned(assignment.request, lifecycle.scheduler().nowMillis());
+        amb.setDispatchNanos(lifecycle.nowNanos());
+        listener.assigned(assignment);
+        Metrics m = metrics;
+        if (m != null) {
+            m.assignments.increment();
+        }
+        int generation = lifecycle.dispatch(amb, () -> {
+            if (m != null) {
+                DispatchQueue.Request request = assignment.request;
+                m.responseMillis[request.severity].record(lifecycle.scheduler().nowMillis() - request.enqueuedAt);
+            }
+        }, () -> {
+            if (forget(amb, assignment) && assignment.doctor != null) {
+                assignment.doctor.discharge(); // Handed over; the doctor can take the next call
+            }
+        });
+        if (generation != -1) {
+            trips.put(amb, new Trip(assignment, generation));
+        } else if (assignment.doctor != null) {
+            assignment.doctor.discharge(); // Moved by someone else before it could leave
+        }
+    }
+}
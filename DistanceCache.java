@@ -0,0 +1,125 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Full distance vectors from recently asked-about sources, so repeat calls from the same
+// area skip the search. Entries are evicted least recently used first once their total
+// size passes a byte cap, and are only valid for the graph version they were computed
+// on, so any weight change invalidates them all. An optional time-to-live also ages
+// entries out. Returned arrays are shared between callers and must not be modified.
+public class DistanceCache {
+    static final long DEFAULT_MAX_BYTES = 32L << 20;
+    private static final int ENTRY_OVERHEAD = 64; // map entry, array header and bookkeeping
+
+    private static class Entry {
+        final int[] dist;
+        final int version;
+        final long computedAt;
+
+        Entry(int[] dist, int version, long computedAt) {
+            this.dist = dist;
+            this.version = version;
+            this.computedAt = computedAt;
+        }
+    }
+
+    private final RoadGraph graph;
+    private final boolean reverse; // distances *to* the source, like DijkstraSearch
+    private final long maxBytes;
+    private final long ttlNanos;   // 0 = entries live until evicted or invalidated
+    private final long entryBytes;
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations; // misses caused by a weight change or expiry
+
+    public DistanceCache(RoadGraph graph, boolean reverse) {
+        this(graph, reverse, DEFAULT_MAX_BYTES, 0);
+    }
+
+    public DistanceCache(RoadGraph graph, boolean reverse, long maxBytes, long ttlMillis) {
+        this.graph = graph;
+        this.reverse = reverse;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttlMillis * 1_000_000;
+        this.entryBytes = 4L * graph.nodeCount() + ENTRY_OVERHEAD;
+    }
+
+    // Distance array from (or to) the source, indexed by node id; INF where unreachable
+    int[] distances(int source) {
+        long now = ttlNanos > 0 ? System.nanoTime() : 0;
+        int version = graph.version();
+        synchronized (this) {
+            Entry entry = entries.get(source);
+            if (entry != null) {
+                if (entry.version == version && (ttlNanos == 0 || now - entry.computedAt < ttlNanos)) {
+                    hits++;
+                    return entry.dist;
+                }
+                entries.remove(source);
+                invalidations++;
+            }
+            misses++;
+        }
+        // Searched outside the lock so other sources are served meanwhile. The entry is
+        // tagged with the version read before the search, so a change during it is not missed.
+        DijkstraSearch search = reverse ? graph.reverseSearch() : graph.forwardSearch();
+        Metrics m = graph.metrics();
+        long start = m == null ? 0 : System.nanoTime();
+        int[] dist = Arrays.copyOf(search.run(source), graph.nodeCount());
+        if (m != null) {
+            m.oneToAllNanos.record(System.nanoTime() - start);
+        }
+        if (entryBytes <= maxBytes) {
+            synchronized (this) {
+                entries.put(source, new Entry(dist, version, now));
+                evict();
+            }
+        }
+        return dist;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    private void evict() {
+        long limit = maxBytes / entryBytes;
+        Iterator<Map.Entry<Integer, Entry>> it = entries.entrySet().iterator();
+        while (entries.size() > limit && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    synchronized long invalidations() {
+        return invalidations;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return "hits " + hits + ", misses " + misses + " (" + invalidations + " stale), evictions " + evictions +
+                ", hit rate " + (lookups == 0 ? 0 : 100 * hits / lookups) + "%, " + entries.size() + " sources cached";
+    }
+}
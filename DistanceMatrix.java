@@ -0,0 +1,247 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Road distance from every location to every hospital, for planning.
+// Rather than one search per location, each hospital gets one search over incoming edges,
+// which yields its distance from every location at once: tens of thousands of rows cost
+// only as many searches as there are hospitals. The hospitals are split across a
+// ForkJoinPool; each worker reuses the graph's per-thread search buffers and writes its
+// own columns, so workers share nothing while they run.
+//
+// The written matrix is read back and compared before the tool reports success. The console
+// maps region.matrix at startup when it matches the region's roads and hospitals, so the
+// hospital distance view does not recompute it.
+//
+// Usage: java DistanceMatrix <region> [output]   (default output: region.matrix next to the region)
+public class DistanceMatrix {
+    static final String MATRIX_FILE = "region.matrix";
+    private static final int MAGIC = ('A' << 24) | ('T' << 16) | ('D' << 8) | 'M';
+    private static final int VERSION = 1;
+
+    final RoadGraph graph;
+    final String[] hospitals;      // column names
+    final int[] hospitalNodes;
+    private final int[] dist;      // row-major: dist[location * columns + hospital], INF if unreachable
+    private final long weightHash;
+    private final int builtVersion; // graph version it was computed or checked for
+
+    private DistanceMatrix(RoadGraph graph, String[] hospitals, int[] hospitalNodes, int[] dist, long weightHash, int builtVersion) {
+        this.graph = graph;
+        this.hospitals = hospitals;
+        this.hospitalNodes = hospitalNodes;
+        this.dist = dist;
+        this.weightHash = weightHash;
+        this.builtVersion = builtVersion;
+    }
+
+    static DistanceMatrix build(RoadGraph graph, HospitalBST hospitalTree) {
+        return build(graph, hospitalTree, ForkJoinPool.commonPool());
+    }
+
+    static DistanceMatrix build(RoadGraph graph, HospitalBST hospitalTree, ForkJoinPool pool) {
+        List<String> names = columnNames(graph, hospitalTree);
+        int columns = names.size();
+        if ((long) graph.nodeCount() * columns > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Distance matrix too large: " + graph.nodeCount() + " x " + columns);
+        }
+        int[] nodes = new int[columns];
+        for (int c = 0; c < columns; c++) {
+            nodes[c] = graph.id(names.get(c));
+        }
+        int version = graph.version();
+        long hash = ContractionHierarchy.weightHash(graph);
+        int[] dist = new int[graph.nodeCount() * columns];
+        pool.invoke(new Columns(graph, nodes, dist, 0, columns));
+        return new DistanceMatrix(graph, names.toArray(new String[0]), nodes, dist, hash, version);
+    }
+
+    // Hospitals on the road graph, in tree order: the columns a matrix for them has
+    private static List<String> columnNames(RoadGraph graph, HospitalBST hospitalTree) {
+        List<String> names = new ArrayList<>();
+        for (Hospital h : hospitalTree) {
+            if (graph.id(h.getName()) != -1) {
+                names.add(h.getName());
+            }
+        }
+        return names;
+    }
+
+    // Whether this matrix has exactly the columns build() would give these hospitals
+    boolean covers(HospitalBST hospitalTree) {
+        return Arrays.asList(hospitals).equals(columnNames(graph, hospitalTree));
+    }
+
+    // Same columns and distances, e.g. a matrix and what was read back from its file
+    boolean sameAs(DistanceMatrix other) {
+        return Arrays.equals(hospitals, other.hospitals) && Arrays.equals(dist, other.dist);
+    }
+
+    // Fills the columns [from, to), halving the range until one hospital is left
+    private static final class Columns extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RoadGraph graph;
+        private final int[] nodes;
+        private final int[] dist;
+        private final int from;
+        private final int to;
+
+        Columns(RoadGraph graph, int[] nodes, int[] dist, int from, int to) {
+            this.graph = graph;
+            this.nodes = nodes;
+            this.dist = dist;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Columns(graph, nodes, dist, from, mid), new Columns(graph, nodes, dist, mid, to));
+                return;
+            }
+            if (from == to) {
+                return;
+            }
+            int[] toHospital = graph.reverseSearch().run(nodes[from]);
+            int columns = nodes.length;
+            for (int x = 0, i = from; x < toHospital.length; x++, i += columns) {
+                dist[i] = toHospital[x];
+            }
+        }
+    }
+
+    int rows() {
+        return graph.nodeCount();
+    }
+
+    int columns() {
+        return hospitals.length;
+    }
+
+    // Road distance from location node to hospital column c, INF if unreachable
+    int distance(int node, int c) {
+        return dist[node * hospitals.length + c];
+    }
+
+    // Hospital columns ordered by distance from the location, unreachable ones left out
+    int[] byDistance(int node) {
+        int columns = hospitals.length;
+        long[] keyed = new long[columns];
+        int count = 0;
+        for (int c = 0; c < columns; c++) {
+            int d = distance(node, c);
+            if (d != DijkstraSearch.INF) {
+                keyed[count++] = (long) d << 32 | c;
+            }
+        }
+        Arrays.sort(keyed, 0, count);
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (int) keyed[i];
+        }
+        return order;
+    }
+
+    // True while the graph still has the weights the matrix was computed from
+    boolean isFresh() {
+        return graph.version() == builtVersion;
+    }
+
+    // Big-endian ints: "ATDM", version, rows, columns, weight hash, hospital names
+    // (length-prefixed UTF-8), then the rows
+    void write(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rows());
+            out.writeInt(columns());
+            out.writeLong(weightHash);
+            for (String name : hospitals) {
+                byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            }
+            for (int value : dist) {
+                out.writeInt(value);
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Maps a stored matrix; fails if it was computed for other road weights
+    static DistanceMatrix read(RoadGraph graph, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+                    throw new IOException("Not a distance matrix: " + path);
+                }
+                int version = graph.version();
+                long hash = ContractionHierarchy.weightHash(graph);
+                int rows = map.getInt();
+                int columns = map.getInt();
+                if (rows != graph.nodeCount() || map.getLong() != hash) {
+                    throw new IOException("Distance matrix is for different road weights: " + path);
+                }
+                String[] hospitals = new String[columns];
+                int[] nodes = new int[columns];
+                for (int c = 0; c < columns; c++) {
+                    byte[] utf8 = new byte[map.getInt()];
+                    map.get(utf8);
+                    hospitals[c] = new String(utf8, StandardCharsets.UTF_8);
+                    nodes[c] = graph.id(hospitals[c]);
+                    if (nodes[c] == -1) {
+                        throw new IOException("Distance matrix names a hospital that is not on the roads: " + hospitals[c]);
+                    }
+                }
+                int[] dist = new int[rows * columns];
+                map.asIntBuffer().get(dist);
+                return new DistanceMatrix(graph, hospitals, nodes, dist, hash, version);
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt distance matrix: " + path, e);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java DistanceMatrix <region> [output]");
+            return;
+        }
+        Path regionPath = Paths.get(args[0]);
+        Region region = Region.open(regionPath);
+        Path out = args.length > 1 ? Paths.get(args[1])
+                : Files.isDirectory(regionPath) ? regionPath.resolve(MATRIX_FILE) : regionPath.resolveSibling(MATRIX_FILE);
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        long start = System.nanoTime();
+        DistanceMatrix matrix = build(region.roads, region.hospitals, pool);
+        long built = System.nanoTime();
+        matrix.write(out);
+        long written = System.nanoTime();
+        if (!read(region.roads, out).sameAs(matrix)) {
+            System.out.println("The matrix written to " + out + " does not read back the same.");
+            System.exit(1);
+        }
+        System.out.println(matrix.rows() + " locations x " + matrix.columns() + " hospitals on " + pool.getParallelism() +
+                " workers: computed in " + (built - start) / 1000000 + " ms, written to " + out + " in " +
+                (written - built) / 1000000 + " ms and read back unchanged");
+    }
+}
@@ -1,14 +1,36 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class Doctor {
+    static final int DEFAULT_CAPACITY = 3; // patients a doctor takes on at once
+
     String name;
     String specialization;
+    Hospital hospital;                 // Set by Hospital.addDoctor
+    volatile boolean onShift = true;
+    final AtomicInteger load = new AtomicInteger(); // patients currently under this doctor
+    int capacity = DEFAULT_CAPACITY;
 
     public Doctor(String name, String specialization) {
         this.name = name;
         this.specialization = specialization;
     }
 
+    // On shift and below capacity
+    boolean isFree() {
+        return onShift && load.get() < capacity;
+    }
+
+    void admit() {
+        load.incrementAndGet();
+    }
+
+    void discharge() {
+        load.updateAndGet(n -> n > 0 ? n - 1 : 0);
+    }
+
     @Override
     public String toString() {
-        return "Name: " + name + ", Specialization: " + specialization;
+        return "Name: " + name + ", Specialization: " + specialization + ", Patients: " + load.get() +
+                (onShift ? "" : " (off shift)");
     }
-}
\ No newline at end of file
+}
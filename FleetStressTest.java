@@ -0,0 +1,167 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Stress test for the lock-free ambulance allocation: Hospital.getAvailableAmbulance and
+// Ambulance.tryAcquire must never hand one unit to two dispatchers, and release must put it back.
+// The free pool behind them is now FleetTable's per-hospital bitsets, so that is what gets raced.
+// Threads claim through both calls, start trips with transition(), and release through release()
+// and advance(trip, AVAILABLE). Each claimed unit is marked with its claimer; a second claimer while
+// it is marked is a double assignment. A claimed unit must be out of Available at every step,
+// and once every thread has stopped each unit's free bit must match its state again.
+// Exits with status 1 on any violation. gradle check runs it through the fleetStress task.
+// Usage: java FleetStressTest [threads] [hospitals] [unitsPerHospital] [seconds] [claimsPerThread]
+public class FleetStressTest {
+    private static final int HELD_PER_THREAD = 8; // units a thread keeps out before releasing one
+
+    private final List<Hospital> hospitals;
+    private final Ambulance[] units; // by fleet slot
+    private final AtomicIntegerArray claimedBy; // thread + 1 holding each slot, 0 = nobody
+    private final AtomicLong claims = new AtomicLong();
+    private final AtomicLong releases = new AtomicLong();
+    private final AtomicLong doubleAssignments = new AtomicLong();
+    private final AtomicLong stateMismatches = new AtomicLong();
+
+    FleetStressTest(HospitalBST tree) {
+        hospitals = tree.getSortedHospitals();
+        List<Ambulance> all = new ArrayList<>();
+        for (Hospital h : hospitals) {
+            all.addAll(h.getAmbulances());
+        }
+        units = new Ambulance[all.size()];
+        for (Ambulance amb : all) {
+            units[amb.slot] = amb;
+        }
+        claimedBy = new AtomicIntegerArray(units.length);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int hospitalCount = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int unitsPerHospital = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 5;
+        long claimsPerThread = args.length > 4 ? Long.parseLong(args[4]) : Long.MAX_VALUE; // stops at whichever comes first
+
+        FleetStressTest test = new FleetStressTest(SyntheticCity.hospitals(hospitalCount, unitsPerHospital, null, new Random(3)));
+        System.out.println(threads + " threads over " + hospitalCount + " hospitals x " + unitsPerHospital + " units for " +
+                seconds + " s" + (claimsPerThread == Long.MAX_VALUE ? "" : " or " + claimsPerThread + " claims per thread"));
+        boolean ok = test.run(threads, (long) (seconds * 1e9), claimsPerThread);
+        System.out.println("claims " + test.claims + ", releases " + test.releases + ", double assignments " +
+                test.doubleAssignments + ", state mismatches " + test.stateMismatches);
+        System.out.println(ok ? "OK" : "FAILED");
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    boolean run(int threads, long nanos, long claimsPerThread) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int id = t + 1;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                work(id, new Random(id), System.nanoTime() + nanos, claimsPerThread);
+            }, "fleet-stress-" + id);
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return doubleAssignments.get() == 0 && stateMismatches.get() == 0 && claims.get() == releases.get() && quiescent();
+    }
+
+    private void work(int id, Random random, long end, long maxClaims) {
+        Map<Ambulance, Integer> held = new IdentityHashMap<>(); // unit -> its trip generation
+        List<Ambulance> order = new ArrayList<>();
+        for (long claimed = 0; claimed < maxClaims && System.nanoTime() < end; ) {
+            if (held.size() < HELD_PER_THREAD && random.nextBoolean()) {
+                Ambulance amb = random.nextBoolean()
+                        ? hospitals.get(random.nextInt(hospitals.size())).getAvailableAmbulance(3)
+                        : tryAcquire(units[random.nextInt(units.length)]);
+                if (amb != null) {
+                    claimed(id, amb, held, order);
+                    claimed++;
+                }
+            } else if (!order.isEmpty()) {
+                Ambulance amb = order.remove(random.nextInt(order.size()));
+                int trip = held.remove(amb);
+                // Unmarked before it goes back, as the next claimer may win as soon as it does
+                claimedBy.set(amb.slot, 0);
+                boolean back = random.nextBoolean() ? amb.release() : amb.advance(trip, AmbulanceState.AVAILABLE);
+                if (back) {
+                    releases.incrementAndGet();
+                } else {
+                    stateMismatches.incrementAndGet();
+                }
+            }
+        }
+        for (Ambulance amb : order) {
+            claimedBy.set(amb.slot, 0);
+            if (amb.release()) {
+                releases.incrementAndGet();
+            } else {
+                stateMismatches.incrementAndGet();
+            }
+        }
+    }
+
+    private static Ambulance tryAcquire(Ambulance amb) {
+        return amb.tryAcquire() ? amb : null;
+    }
+
+    // Marks a unit just claimed by thread id and starts its trip, which must succeed while it is held
+    private void claimed(int id, Ambulance amb, Map<Ambulance, Integer> held, List<Ambulance> order) {
+        claims.incrementAndGet();
+        int other = claimedBy.getAndSet(amb.slot, id);
+        if (other != 0) {
+            doubleAssignments.incrementAndGet();
+            System.out.println("Double assignment: " + amb.ambulanceId + " claimed by threads " + other + " and " + id);
+        }
+        if (amb.state() != AmbulanceState.DISPATCHED) {
+            stateMismatches.incrementAndGet();
+        }
+        if (held.containsKey(amb)) {
+            return; // Handed out twice to this same thread; counted above, and it is still held once
+        }
+        int trip = amb.transition(AmbulanceState.EN_ROUTE);
+        if (trip == -1 || amb.isAvailable() || amb.fleet.hasFreeBit(amb.slot)) {
+            stateMismatches.incrementAndGet();
+        }
+        held.put(amb, trip);
+        order.add(amb);
+    }
+
+    // With nobody running: every unit available, and the free bits and the states agree
+    private boolean quiescent() {
+        boolean ok = true;
+        for (Hospital h : hospitals) {
+            int available = 0;
+            for (Ambulance amb : h.getAmbulances()) {
+                if (amb.isAvailable()) {
+                    available++;
+                }
+                if (amb.isAvailable() != amb.fleet.hasFreeBit(amb.slot)) {
+                    System.out.println("Free bit and state disagree for " + amb.ambulanceId + " (" + amb.state() + ")");
+                    ok = false;
+                }
+            }
+            if (available != h.getAmbulances().size() || h.freeAmbulanceCount() != available) {
+                System.out.println(h.getName() + ": " + available + " available, " + h.freeAmbulanceCount() + " free bits, " +
+                        h.getAmbulances().size() + " units");
+                ok = false;
+            }
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,372 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Every ambulance of a HospitalRegistry in structure-of-arrays form: one slot per unit
+// across parallel primitive arrays (state word, hospital, timestamps, position), and per
+// hospital a bitset of its free units. "Free units at a hospital" is a bitCount over a few
+// words and "first free unit" a numberOfTrailingZeros, with no walk over unit objects.
+// Ambulance objects are handles onto a slot. Reported positions are also kept in a
+// SpatialGrid, for the nearest free unit to a point anywhere in the fleet.
+//
+// A unit is claimed by clearing its free bit with a CAS; only the winner then moves its
+// state word out of Available. Going back to Available sets the state first and the bit
+// after, so a set bit always means a claimable unit.
+//
+// Units and hospitals are added while the fleet is being set up; adds concurrent with
+// dispatching are not supported, state changes are.
+public class FleetTable {
+    private static final int STATE_BITS = 8;
+    private static final long STATE_MASK = (1 << STATE_BITS) - 1;
+    private static final int AVAILABLE = AmbulanceState.AVAILABLE.ordinal();
+    static final long NO_POSITION = pack(Double.NaN, Double.NaN);
+
+    // Per unit slot. state is generation << STATE_BITS | AmbulanceState ordinal, see Ambulance.
+    private AtomicLongArray state = new AtomicLongArray(16);
+    private int[] hospitalOf = new int[16];
+    private int[] localIndex = new int[16]; // position in its hospital's unit list and bitset
+    // Timestamps and positions are written and read from different threads (dispatcher, GPS
+    // feed, HTTP and console), so they are atomic too. A position is one word, latitude and
+    // longitude as packed floats, so a reader never pairs the halves of two different fixes.
+    private AtomicLongArray dispatchNanos = new AtomicLongArray(16); // epoch nanos, 0 = not set
+    private AtomicLongArray arrivalNanos = new AtomicLongArray(16);
+    private AtomicLongArray position = filled(16, NO_POSITION); // last reported, see pack()
+    private Ambulance[] units = new Ambulance[16];
+    private int size;
+    private final SpatialGrid positions = new SpatialGrid(); // units with a known position, by slot
+
+    // Per hospital index
+    private int[][] hospitalUnits = new int[4][]; // slots in local order
+    private int[] hospitalSize = new int[4];
+    private AtomicLongArray[] free = new AtomicLongArray[4];
+    private int hospitalCount;
+
+    // Index for a new group of units, e.g. one hospital's
+    synchronized int addHospital() {
+        if (hospitalCount == free.length) {
+            int grown = hospitalCount * 2;
+            hospitalUnits = Arrays.copyOf(hospitalUnits, grown);
+            hospitalSize = Arrays.copyOf(hospitalSize, grown);
+            free = Arrays.copyOf(free, grown);
+        }
+        int h = hospitalCount++;
+        hospitalUnits[h] = new int[4];
+        free[h] = new AtomicLongArray(1);
+        return h;
+    }
+
+    // Moves a hospital and its units into this table; they keep their state and timestamps
+    synchronized void adopt(Hospital hospital) {
+        int h = addHospital();
+        for (Ambulance amb : hospital.ambulances) {
+            place(amb, h);
+        }
+        hospital.fleet = this;
+        hospital.fleetIndex = h;
+    }
+
+    // New unit at hospital index h, available and in the free set
+    Ambulance add(String id, Hospital home, int h) {
+        Ambulance amb = new Ambulance(id, home);
+        place(amb, h);
+        return amb;
+    }
+
+    // Gives the unit a slot under hospital index h. A unit that already has a slot in another
+    // table (its hospital just joined a registry) keeps its state and timestamps.
+    synchronized void place(Ambulance amb, int h) {
+        FleetTable from = amb.fleet;
+        int old = amb.slot;
+        int slot = from == null ? newSlot(h, AVAILABLE, 0, 0, NO_POSITION)
+                : newSlot(h, from.state.get(old), from.dispatchNanos.get(old), from.arrivalNanos.get(old), from.position.get(old));
+        units[slot] = amb;
+        amb.fleet = this;
+        amb.slot = slot;
+        long at = position.get(slot);
+        if (at != NO_POSITION) {
+            positions.put(slot, latitude(at), longitude(at));
+        }
+    }
+
+    private int newSlot(int h, long word, long dispatched, long arrived, long at) {
+        if (size == units.length) {
+            int grown = size * 2;
+            state = copyOf(state, size, grown, 0);
+            hospitalOf = Arrays.copyOf(hospitalOf, grown);
+            localIndex = Arrays.copyOf(localIndex, grown);
+            dispatchNanos = copyOf(dispatchNanos, size, grown, 0);
+            arrivalNanos = copyOf(arrivalNanos, size, grown, 0);
+            position = copyOf(position, size, grown, NO_POSITION);
+            units = Arrays.copyOf(units, grown);
+        }
+        int slot = size++;
+        state.set(slot, word);
+        dispatchNanos.set(slot, dispatched);
+        arrivalNanos.set(slot, arrived);
+        position.set(slot, at);
+
+        int local = hospitalSize[h]++;
+        if (local == hospitalUnits[h].length) {
+            hospitalUnits[h] = Arrays.copyOf(hospitalUnits[h], local * 2);
+        }
+        hospitalUnits[h][local] = slot;
+        if (local >>> 6 == free[h].length()) {
+            AtomicLongArray bits = new AtomicLongArray(free[h].length() * 2);
+            for (int i = 0; i < free[h].length(); i++) {
+                bits.set(i, free[h].get(i));
+            }
+            free[h] = bits;
+        }
+        hospitalOf[slot] = h;
+        localIndex[slot] = local;
+        if ((word & STATE_MASK) == AVAILABLE) {
+            setFreeBit(slot);
+        }
+        return slot;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Ambulance unit(int slot) {
+        return units[slot];
+    }
+
+    long stateWord(int slot) {
+        return state.get(slot);
+    }
+
+    boolean isAvailable(int slot) {
+        return (state.get(slot) & STATE_MASK) == AVAILABLE;
+    }
+
+    // Claims a free unit: Available -> Dispatched under a new generation
+    boolean tryAcquire(int slot) {
+        if (!claimFreeBit(slot)) {
+            return false;
+        }
+        while (true) {
+            long s = state.get(slot);
+            if (state.compareAndSet(slot, s, pack(generation(s) + 1, AmbulanceState.DISPATCHED))) {
+                return true;
+            }
+        }
+    }
+
+    // Validated move under a new generation; -1 if not allowed
+    int transition(int slot, AmbulanceState to) {
+        while (true) {
+            long s = state.get(slot);
+            AmbulanceState from = AmbulanceState.of((int) (s & STATE_MASK));
+            if (!from.canMoveTo(to)) {
+                return -1;
+            }
+            if (from == AmbulanceState.AVAILABLE && !claimFreeBit(slot)) {
+                continue; // Claimed by someone else, or just released and its bit not yet set
+            }
+            int next = generation(s) + 1;
+            if (state.compareAndSet(slot, s, pack(next, to))) {
+                if (to == AmbulanceState.AVAILABLE) {
+                    setFreeBit(slot);
+                }
+                return next;
+            }
+            if (from == AmbulanceState.AVAILABLE) {
+                setFreeBit(slot); // Not expected, as only the bit owner leaves Available: give the bit back
+            }
+        }
+    }
+
+    // Validated move that keeps the generation; false if the generation changed or the move is not allowed
+    boolean advance(int slot, int generation, AmbulanceState to) {
+        while (true) {
+            long s = state.get(slot);
+            AmbulanceState from = AmbulanceState.of((int) (s & STATE_MASK));
+            if (generation(s) != generation || !from.canMoveTo(to)) {
+                return false;
+            }
+            if (from == AmbulanceState.AVAILABLE && !claimFreeBit(slot)) {
+                return false;
+            }
+            if (state.compareAndSet(slot, s, pack(generation, to))) {
+                if (to == AmbulanceState.AVAILABLE) {
+                    setFreeBit(slot);
+                }
+                return true;
+            }
+            if (from == AmbulanceState.AVAILABLE) {
+                setFreeBit(slot);
+            }
+        }
+    }
+
+    // Claims the first free unit of hospital index h, or returns null if it has none
+    Ambulance acquireFree(int h) {
+        AtomicLongArray bits = free[h];
+        for (int w = 0; w < bits.length(); w++) {
+            long word;
+            while ((word = bits.get(w)) != 0) {
+                int slot = hospitalUnits[h][w << 6 | Long.numberOfTrailingZeros(word)];
+                if (tryAcquire(slot)) {
+                    return units[slot];
+                }
+            }
+        }
+        return null;
+    }
+
+    int freeCount(int h) {
+        AtomicLongArray bits = free[h];
+        int count = 0;
+        for (int w = 0; w < bits.length(); w++) {
+            count += Long.bitCount(bits.get(w));
+        }
+        return count;
+    }
+
+    boolean hasFree(int h) {
+        AtomicLongArray bits = free[h];
+        for (int w = 0; w < bits.length(); w++) {
+            if (bits.get(w) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int unitCount(int h) {
+        return hospitalSize[h];
+    }
+
+    // Slot of hospital h's i-th unit
+    int unitSlot(int h, int i) {
+        return hospitalUnits[h][i];
+    }
+
+    // Every currently free unit, hospital by hospital
+    List<Ambulance> freeUnits() {
+        List<Ambulance> result = new ArrayList<>();
+        for (int h = 0; h < hospitalCount; h++) {
+            collectFree(h, result);
+        }
+        return result;
+    }
+
+    // Appends the free units of hospital index h
+    void collectFree(int h, List<Ambulance> into) {
+        AtomicLongArray bits = free[h];
+        for (int w = 0; w < bits.length(); w++) {
+            for (long word = bits.get(w); word != 0; word &= word - 1) {
+                into.add(units[hospitalUnits[h][w << 6 | Long.numberOfTrailingZeros(word)]]);
+            }
+        }
+    }
+
+    long dispatchNanos(int slot) {
+        return dispatchNanos.get(slot);
+    }
+
+    void setDispatchNanos(int slot, long epochNanos) {
+        dispatchNanos.set(slot, epochNanos);
+    }
+
+    long arrivalNanos(int slot) {
+        return arrivalNanos.get(slot);
+    }
+
+    void setArrivalNanos(int slot, long epochNanos) {
+        arrivalNanos.set(slot, epochNanos);
+    }
+
+    // Last reported position as one word, NO_POSITION if none; see latitude(long) and longitude(long)
+    long position(int slot) {
+        return position.get(slot);
+    }
+
+    void setPosition(int slot, double lat, double lon) {
+        position.set(slot, pack(lat, lon));
+        positions.put(slot, lat, lon);
+    }
+
+    // Floats keep a position to about a metre, plenty to find the nearest road node
+    static long pack(double lat, double lon) {
+        return (long) Float.floatToIntBits((float) lat) << 32 | Float.floatToIntBits((float) lon) & 0xffffffffL;
+    }
+
+    static double latitude(long position) {
+        return Float.intBitsToFloat((int) (position >>> 32));
+    }
+
+    static double longitude(long position) {
+        return Float.intBitsToFloat((int) position);
+    }
+
+    private static AtomicLongArray filled(int length, long value) {
+        AtomicLongArray array = new AtomicLongArray(length);
+        for (int i = 0; i < length; i++) {
+            array.set(i, value);
+        }
+        return array;
+    }
+
+    private static AtomicLongArray copyOf(AtomicLongArray array, int size, int length, long fill) {
+        AtomicLongArray copy = filled(length, fill);
+        for (int i = 0; i < size; i++) {
+            copy.set(i, array.get(i));
+        }
+        return copy;
+    }
+
+    // Free unit closest to a point in a straight line, among units with a known position; null if none
+    Ambulance nearestFree(double lat, double lon) {
+        int slot = positions.nearest(lat, lon, this::isAvailable);
+        return slot == -1 ? null : units[slot];
+    }
+
+    // Whether the unit's bit is set in its hospital's free set, e.g. to check it against the state
+    boolean hasFreeBit(int slot) {
+        int local = localIndex[slot];
+        return (free[hospitalOf[slot]].get(local >>> 6) & 1L << local) != 0;
+    }
+
+    private boolean claimFreeBit(int slot) {
+        AtomicLongArray bits = free[hospitalOf[slot]];
+        int local = localIndex[slot];
+        long mask = 1L << local;
+        while (true) {
+            long word = bits.get(local >>> 6);
+            if ((word & mask) == 0) {
+                return false;
+            }
+            if (bits.compareAndSet(local >>> 6, word, word & ~mask)) {
+                return true;
+            }
+        }
+    }
+
+    private void setFreeBit(int slot) {
+        AtomicLongArray bits = free[hospitalOf[slot]];
+        int local = localIndex[slot];
+        long mask = 1L << local;
+        while (true) {
+            long word = bits.get(local >>> 6);
+            if ((word & mask) != 0 || bits.compareAndSet(local >>> 6, word, word | mask)) {
+                return;
+            }
+        }
+    }
+
+    static int generation(long word) {
+        return (int) (word >>> STATE_BITS);
+    }
+
+    static AmbulanceState state(long word) {
+        return AmbulanceState.of((int) (word & STATE_MASK));
+    }
+
+    private static long pack(int generation, AmbulanceState state) {
+        return (generation & 0xffffffffL) << STATE_BITS | state.ordinal();
+    }
+}
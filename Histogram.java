@@ -0,0 +1,83 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Distribution of non-negative long values (latencies in ns, node counts) in log-linear buckets,
+// as HdrHistogram lays them out: values below 128 are counted exactly, and above that every
+// power of two is split into 64 equal steps, so a percentile is reported within 1/64 (about 1.6%)
+// of the true value over the whole long range. Recording is a few uncontended atomic adds, with
+// no lock and no allocation; reading walks the 3,712 buckets. Safe for any number of writers.
+public class Histogram {
+    private static final int SUB_BITS = 7;
+    private static final int HALF = 1 << (SUB_BITS - 1); // steps per power of two
+    private static final int SIZE = (64 - SUB_BITS + 1) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SIZE);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(index(v));
+        count.increment();
+        sum.add(v);
+        long m;
+        while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+            // lost a race with another writer; retry against its value
+        }
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    // Value at or below which p percent of the recorded values fall (nearest rank), 0 if empty
+    long percentile(double p) {
+        long[] snapshot = new long[SIZE];
+        long total = 0;
+        for (int i = 0; i < SIZE; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < SIZE; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalent(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private static int index(long v) {
+        if (v < 2 * HALF) {
+            return (int) v;
+        }
+        int bucket = 63 - Long.numberOfLeadingZeros(v) - (SUB_BITS - 1);
+        return (bucket + 1) * HALF + (int) (v >>> bucket) - HALF;
+    }
+
+    // Largest value that falls into bucket index i
+    private static long highestEquivalent(int i) {
+        if (i < 2 * HALF) {
+            return i;
+        }
+        int bucket = i / HALF - 1;
+        long sub = i % HALF + HALF;
+        return ((sub + 1) << bucket) - 1;
+    }
+}
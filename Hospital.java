@@ -1,17 +1,20 @@
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ArrayList;
 
 public class Hospital {
     int locationId;
     String name;
-    LinkedList<Ambulance> ambulances;
+    List<Ambulance> ambulances;
     List<Doctor> doctors; // Added list of doctors
+    HospitalRegistry registry; // Set once the hospital is inserted into a HospitalBST
+    FleetTable fleet; // Where this hospital's units live: its registry's table once inserted into a HospitalBST
+    int fleetIndex;   // This hospital's free-unit bitset in fleet
+    volatile Doctor[][] doctorsBySpecialty = new Doctor[0][]; // Maintained by SpecializationIndex
 
     public Hospital(int locationId, String name) {
         this.locationId = locationId;
         this.name = name;
-        this.ambulances = new LinkedList<>();
+        this.ambulances = new ArrayList<>();
         this.doctors = new ArrayList<>(); // Initialize the list of doctors
     }
 
@@ -24,30 +27,63 @@ public class Hospital {
     }
 
     public void addAmbulance(String id) {
-        ambulances.add(new Ambulance(id));
+        if (fleet == null) {
+            fleet = new FleetTable();
+            fleetIndex = fleet.addHospital();
+        }
+        Ambulance amb = fleet.add(id, this, fleetIndex);
+        ambulances.add(amb);
+        if (registry != null) {
+            registry.ambulanceAdded(amb);
+        }
     }
 
     public void addDoctor(String name, String specialization) {
-        doctors.add(new Doctor(name, specialization));
+        Doctor doctor = new Doctor(name, specialization);
+        doctor.hospital = this;
+        doctors.add(doctor);
+        if (registry != null) {
+            registry.specializations.doctorAdded(doctor);
+        }
     }
 
+    // Picks the least-loaded on-shift doctor for the injury and admits the patient to them
     public Doctor getAssignedDoctor(String injuryType) {
+        Doctor doctor = registry != null ? registry.specializations.bestDoctor(this, injuryType) : scanDoctors(injuryType, false);
+        if (doctor != null) {
+            doctor.admit();
+        }
+        return doctor; // null if no matching doctor is on shift
+    }
+
+    // A matching doctor who is on shift and below capacity, or null; nothing is admitted
+    Doctor freeDoctor(String injuryType) {
+        return registry != null ? registry.specializations.freeDoctor(this, injuryType) : scanDoctors(injuryType, true);
+    }
+
+    // Substring match for hospitals outside a HospitalBST, which have no index
+    private Doctor scanDoctors(String injuryType, boolean freeOnly) {
         for (Doctor doctor : doctors) {
-            if (injuryType != null && doctor.specialization.toLowerCase().contains(injuryType.toLowerCase())) {
+            if (injuryType != null && doctor.onShift && (!freeOnly || doctor.isFree())
+                    && doctor.specialization.toLowerCase().contains(injuryType.toLowerCase())) {
                 return doctor;
             }
         }
-        return null; // No matching doctor found
+        return null;
     }
 
+    // Lock-free allocation: claims the first set bit of this hospital's free-unit bitset with a CAS
     public Ambulance getAvailableAmbulance(int severity) {
-        for (Ambulance amb : ambulances) {
-            if (amb.isAvailable() /* && ambulance has required capabilities based on severity (if implemented) */) {
-                amb.setAvailable(false);
-                return amb;
-            }
-        }
-        return null; // Return null if no available ambulance is found
+        // Severity is not used yet; it would select units with the required capabilities
+        return fleet == null ? null : fleet.acquireFree(fleetIndex);
+    }
+
+    int freeAmbulanceCount() {
+        return fleet == null ? 0 : fleet.freeCount(fleetIndex);
+    }
+
+    boolean hasFreeAmbulance() {
+        return fleet != null && fleet.hasFree(fleetIndex);
     }
 
     public Ambulance getAvailableAmbulance() {
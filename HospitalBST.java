@@ -1,10 +1,17 @@
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
-public class HospitalBST {
+// Hospitals keyed by locationId in an AVL tree, so depth stays O(log n) even when
+// hospitals are inserted in id order. Iterating the tree walks it in order lazily.
+public class HospitalBST implements Iterable<Hospital> {
     static class Node {
         Hospital hospital;
         Node left, right;
+        int height = 1;
 
         public Node(Hospital hospital) {
             this.hospital = hospital;
@@ -12,6 +19,8 @@ public class HospitalBST {
     }
 
     Node root;
+    private int size;
+    final HospitalRegistry registry = new HospitalRegistry(); // Name and ambulance id indexes
 
     public void insert(Hospital hospital) {
         root = insertRecursive(root, hospital);
@@ -19,6 +28,8 @@ public class HospitalBST {
 
     private Node insertRecursive(Node root, Hospital hospital) {
         if (root == null) {
+            registry.hospitalAdded(hospital);
+            size++;
             return new Node(hospital);
         }
 
@@ -26,36 +37,173 @@ public class HospitalBST {
             root.left = insertRecursive(root.left, hospital);
         } else if (hospital.locationId > root.hospital.locationId) {
             root.right = insertRecursive(root.right, hospital);
+        } else {
+            return root; // Duplicate ids are ignored
         }
-        return root;
+        return rebalance(root);
+    }
+
+    // Removes the hospital with this id; returns it, or null if there was none
+    public Hospital delete(int id) {
+        Hospital existing = search(id);
+        if (existing != null) {
+            root = deleteRecursive(root, id);
+            size--;
+            registry.hospitalRemoved(existing);
+        }
+        return existing;
+    }
+
+    private Node deleteRecursive(Node root, int id) {
+        if (id < root.hospital.locationId) {
+            root.left = deleteRecursive(root.left, id);
+        } else if (id > root.hospital.locationId) {
+            root.right = deleteRecursive(root.right, id);
+        } else {
+            if (root.left == null) {
+                return root.right;
+            }
+            if (root.right == null) {
+                return root.left;
+            }
+            Node successor = root.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+            root.hospital = successor.hospital;
+            root.right = deleteRecursive(root.right, successor.hospital.locationId);
+        }
+        return rebalance(root);
+    }
+
+    // Replaces the hospital stored under hospital.locationId; returns false if that id is absent.
+    // To move a hospital to a new id, delete it and insert it again.
+    public boolean update(Hospital hospital) {
+        Node node = findNode(hospital.locationId);
+        if (node == null) {
+            return false;
+        }
+        if (node.hospital != hospital) {
+            registry.hospitalRemoved(node.hospital);
+            node.hospital = hospital;
+            registry.hospitalAdded(hospital);
+        }
+        return true;
     }
 
     public List<Hospital> getSortedHospitals() {
-        List<Hospital> hospitals = new ArrayList<>();
-        inorderTraversal(root, hospitals);
+        List<Hospital> hospitals = new ArrayList<>(size);
+        for (Hospital h : this) {
+            hospitals.add(h);
+        }
         return hospitals;
     }
 
-    private void inorderTraversal(Node root, List<Hospital> hospitals) {
-        if (root != null) {
-            inorderTraversal(root.left, hospitals);
-            hospitals.add(root.hospital);
-            inorderTraversal(root.right, hospitals);
-        }
+    // In-order traversal without building a list
+    @Override
+    public Iterator<Hospital> iterator() {
+        return new InOrderIterator(root, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    // All hospitals with from <= locationId <= to, in id order
+    public Iterable<Hospital> range(int from, int to) {
+        return () -> new InOrderIterator(root, from, to);
     }
 
     public Hospital search(int id) {
-        return searchRecursive(root, id);
+        Node node = findNode(id);
+        return node == null ? null : node.hospital;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private Node findNode(int id) {
+        Node node = root;
+        while (node != null && node.hospital.locationId != id) {
+            node = id < node.hospital.locationId ? node.left : node.right;
+        }
+        return node;
     }
 
-    private Hospital searchRecursive(Node root, int id) {
-        if (root == null || root.hospital.locationId == id) {
-            return root == null ? null : root.hospital;
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static void updateHeight(Node node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+    }
+
+    private static Node rebalance(Node node) {
+        updateHeight(node);
+        int balance = height(node.left) - height(node.right);
+        if (balance > 1) {
+            if (height(node.left.left) < height(node.left.right)) {
+                node.left = rotateLeft(node.left);
+            }
+            return rotateRight(node);
+        }
+        if (balance < -1) {
+            if (height(node.right.right) < height(node.right.left)) {
+                node.right = rotateRight(node.right);
+            }
+            return rotateLeft(node);
         }
+        return node;
+    }
 
-        if (id < root.hospital.locationId) {
-            return searchRecursive(root.left, id);
+    private static Node rotateRight(Node node) {
+        Node pivot = node.left;
+        node.left = pivot.right;
+        pivot.right = node;
+        updateHeight(node);
+        updateHeight(pivot);
+        return pivot;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node pivot = node.right;
+        node.right = pivot.left;
+        pivot.left = node;
+        updateHeight(node);
+        updateHeight(pivot);
+        return pivot;
+    }
+
+    // Stack-based in-order walk over ids in [from, to]; the stack holds at most the tree height
+    private static class InOrderIterator implements Iterator<Hospital> {
+        private final Deque<Node> stack = new ArrayDeque<>();
+        private final int to;
+
+        InOrderIterator(Node root, int from, int to) {
+            this.to = to;
+            Node node = root;
+            while (node != null) {
+                if (node.hospital.locationId < from) {
+                    node = node.right;
+                } else {
+                    stack.push(node);
+                    node = node.left;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty() && stack.peek().hospital.locationId <= to;
+        }
+
+        @Override
+        public Hospital next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node node = stack.pop();
+            for (Node n = node.right; n != null; n = n.left) {
+                stack.push(n);
+            }
+            return node.hospital;
         }
-        return searchRecursive(root.right, id);
     }
-}
\ No newline at end of file
+}
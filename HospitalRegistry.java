@@ -0,0 +1,59 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Hash indexes over the hospitals in a HospitalBST, their ambulances and their doctors.
+// Kept up to date by HospitalBST.insert, Hospital.addAmbulance and Hospital.addDoctor, so
+// id and name lookups are O(1) instead of a walk over every hospital.
+public class HospitalRegistry {
+    private final NameIndex<Hospital> hospitalsByName = new NameIndex<>();
+    private final Map<String, Ambulance> ambulancesById = new ConcurrentHashMap<>();
+    final SpecializationIndex specializations = new SpecializationIndex();
+    final FleetTable fleet = new FleetTable(); // Every unit of every hospital, in parallel arrays
+
+    void hospitalAdded(Hospital hospital) {
+        hospital.registry = this;
+        if (hospital.fleet != fleet) {
+            fleet.adopt(hospital);
+        }
+        if (hospitalsByName.get(hospital.getName()) == null) {
+            hospitalsByName.put(hospital.getName(), hospital);
+        }
+        for (Ambulance amb : hospital.getAmbulances()) {
+            ambulanceAdded(amb);
+        }
+        for (Doctor doctor : hospital.doctors) {
+            specializations.doctorAdded(doctor);
+        }
+    }
+
+    void hospitalRemoved(Hospital hospital) {
+        if (hospitalsByName.get(hospital.getName()) == hospital) {
+            hospitalsByName.remove(hospital.getName());
+        }
+        for (Ambulance amb : hospital.getAmbulances()) {
+            ambulancesById.remove(amb.ambulanceId, amb);
+        }
+        specializations.hospitalRemoved(hospital);
+        hospital.doctorsBySpecialty = new Doctor[0][];
+        hospital.registry = null;
+    }
+
+    void ambulanceAdded(Ambulance ambulance) {
+        ambulancesById.putIfAbsent(ambulance.ambulanceId, ambulance);
+    }
+
+    // Case-insensitive, like the old equalsIgnoreCase scan
+    Hospital hospital(String name) {
+        return hospitalsByName.get(name);
+    }
+
+    Ambulance ambulance(String id) {
+        return id == null ? null : ambulancesById.get(id);
+    }
+
+    // Hospital that owns an ambulance, or null if the id is unknown
+    Hospital owner(String ambulanceId) {
+        Ambulance amb = ambulance(ambulanceId);
+        return amb == null ? null : amb.home;
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.Collection;
+
+// Ranks hospitals for a call on more than distance. A hospital's score is its road distance
+// from the patient in km, measured as NearestHospitalIndex does, plus penalties, also in km:
+// no free specialist for the injury, the load of the best matching doctor, and how much of its
+// fleet is already out.
+// Hospitals with no free ambulance are skipped. Since penalties are never negative, a
+// search outwards from the patient can stop as soon as the next hospital is farther
+// away than the best score so far, so a dispatch only looks at nearby hospitals.
+public class HospitalScorer {
+    static final int NO_SPECIALIST_PENALTY = 15;
+    static final int DOCTOR_LOAD_PENALTY = 2;  // per patient the matching doctor already has
+    static final int FLEET_LOAD_PENALTY = 6;   // scaled by the share of units already out
+
+    static class Candidate {
+        final Hospital hospital;
+        final int distance;
+        final int score;
+
+        Candidate(Hospital hospital, int distance, int score) {
+            this.hospital = hospital;
+            this.distance = distance;
+            this.score = score;
+        }
+    }
+
+    private final RoadGraph graph;
+    private final Hospital[][] hospitalsAt; // by graph node, null where there is none
+
+    public HospitalScorer(RoadGraph graph, HospitalBST hospitalTree) {
+        this.graph = graph;
+        hospitalsAt = new Hospital[graph.nodeCount()][];
+        for (Hospital h : hospitalTree) {
+            int node = graph.id(h.getName());
+            if (node == -1) {
+                continue;
+            }
+            Hospital[] here = hospitalsAt[node];
+            if (here == null) {
+                hospitalsAt[node] = new Hospital[] {h};
+            } else {
+                Hospital[] grown = new Hospital[here.length + 1];
+                System.arraycopy(here, 0, grown, 0, here.length);
+                grown[here.length] = h;
+                hospitalsAt[node] = grown;
+            }
+        }
+    }
+
+    // Lowest-scoring hospital with a free ambulance, ignoring `excluded`; null if none is reachable
+    Candidate best(String area, String injuryType, Collection<Hospital> excluded) {
+        int node = graph.id(area);
+        if (node == -1) {
+            return null;
+        }
+        DijkstraSearch search = graph.forwardSearch();
+        search.start(node);
+        Candidate best = null;
+        for (int u; (u = search.next()) != -1; ) {
+            int distance = search.distance(u);
+            if (best != null && distance >= best.score) {
+                break; // every hospital from here on scores at least its distance
+            }
+            Hospital[] here = hospitalsAt[u];
+            if (here == null) {
+                continue;
+            }
+            for (Hospital h : here) {
+                if (excluded.contains(h) || !h.hasFreeAmbulance()) {
+                    continue;
+                }
+                long score = (long) distance + penalty(h, injuryType);
+                if (best == null || score < best.score) {
+                    best = new Candidate(h, distance, (int) Math.min(score, DijkstraSearch.INF - 1));
+                }
+            }
+        }
+        return best;
+    }
+
+    // Extra km charged to a hospital for this injury, on top of its distance
+    int penalty(Hospital hospital, String injuryType) {
+        int penalty = 0;
+        if (injuryType != null && !injuryType.trim().isEmpty()) {
+            Doctor doctor = hospital.freeDoctor(injuryType);
+            penalty += doctor == null ? NO_SPECIALIST_PENALTY : DOCTOR_LOAD_PENALTY * doctor.load.get();
+        }
+        int units = hospital.getAmbulances().size();
+        if (units > 0) {
+            int out = units - hospital.freeAmbulanceCount();
+            penalty += FLEET_LOAD_PENALTY * out / units;
+        }
+        return penalty;
+    }
+}
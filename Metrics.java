@@ -0,0 +1,192 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+// Instruments of one DispatchService: histograms for the timed hot paths, counters and gauges.
+// The hot paths hold the histograms directly; the name of each says its unit. Everything is
+// readable as a text dump and, once registered, over JMX (one read-only attribute per counter
+// and gauge, and count/mean/p50/p99/p999/max per histogram).
+public class Metrics implements DynamicMBean {
+    static final String DOMAIN = "AmbulanceTracker";
+    private static final String[] STATS = {"count", "mean", "p50", "p99", "p999", "max"};
+
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private ObjectName registeredAs;
+
+    // Routing, recorded by RoadGraph, its DistanceCache and every search over it
+    final Histogram routeNanos = histogram("routing.route_ns");          // point-to-point route()
+    final Histogram oneToAllNanos = histogram("routing.one_to_all_ns");  // full search on a distance cache miss
+    final Histogram settledPerSearch = histogram("routing.settled_nodes");
+    final LongAdder searches = counter("routing.searches");
+    final LongAdder settledNodes = counter("routing.settled_nodes_total");
+    // Contraction hierarchy upkeep: routes answered by RouteSearch while it was stale, and rebuilds
+    final LongAdder staleHierarchyRoutes = counter("routing.stale_hierarchy_routes");
+    final LongAdder hierarchyRebuilds = counter("routing.hierarchy_rebuilds");
+    final Histogram hierarchyRebuildMillis = histogram("routing.hierarchy_rebuild_ms");
+
+    // Dispatching, recorded by Dispatcher and DispatchService
+    final Histogram selectNanos = histogram("dispatch.select_ns");       // picking hospital and unit for one call
+    final Histogram batchMatchNanos = histogram("dispatch.batch_match_ns");
+    final Histogram requestNanos = histogram("dispatch.request_ns");     // requestAmbulance end to end
+    final LongAdder assignments = counter("dispatch.assignments");
+    final LongAdder preemptions = counter("dispatch.preemptions");
+    // Call to unit at the scene on the lifecycle clock, by severity (index 0 unused)
+    final Histogram[] responseMillis = {null, histogram("response.severity1_ms"),
+            histogram("response.severity2_ms"), histogram("response.severity3_ms")};
+
+    Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // Every instrument, one per line, sorted by name
+    String dump() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            Histogram h = e.getValue();
+            out.append(e.getKey()).append(" count=").append(h.count()).append(" mean=").append(Math.round(h.mean()))
+                    .append(" p50=").append(h.percentile(50)).append(" p99=").append(h.percentile(99))
+                    .append(" p999=").append(h.percentile(99.9)).append(" max=").append(h.max()).append('\n');
+        }
+        for (Map.Entry<String, LongAdder> e : counters.entrySet()) {
+            out.append(e.getKey()).append(' ').append(e.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, LongSupplier> e : gauges.entrySet()) {
+            out.append(e.getKey()).append(' ').append(e.getValue().getAsLong()).append('\n');
+        }
+        return out.toString();
+    }
+
+    // Registers with the platform MBean server as AmbulanceTracker:type=Metrics,name=<name>,
+    // adding a number if the name is taken (several services in one JVM)
+    synchronized ObjectName register(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = ObjectName.getInstance(DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name));
+        for (int n = 2; server.isRegistered(objectName); n++) {
+            objectName = ObjectName.getInstance(DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name + "-" + n));
+        }
+        server.registerMBean(this, objectName);
+        registeredAs = objectName;
+        return objectName;
+    }
+
+    synchronized void unregister() {
+        if (registeredAs != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredAs);
+            } catch (JMException e) {
+                // already gone
+            }
+            registeredAs = null;
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        LongAdder counter = counters.get(attribute);
+        if (counter != null) {
+            return counter.sum();
+        }
+        LongSupplier gauge = gauges.get(attribute);
+        if (gauge != null) {
+            return gauge.getAsLong();
+        }
+        int dot = attribute.lastIndexOf('.');
+        Histogram h = dot == -1 ? null : histograms.get(attribute.substring(0, dot));
+        if (h != null) {
+            switch (attribute.substring(dot + 1)) {
+                case "count":
+                    return h.count();
+                case "mean":
+                    return Math.round(h.mean());
+                case "p50":
+                    return h.percentile(50);
+                case "p99":
+                    return h.percentile(99);
+                case "p999":
+                    return h.percentile(99.9);
+                case "max":
+                    return h.max();
+                default:
+                    break;
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // left out, as the DynamicMBean contract asks
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList(); // all read-only
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if (actionName.equals("dump")) {
+            return dump();
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    // Built on each call, since instruments can be added after registration
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String name : histograms.keySet()) {
+            for (String stat : STATS) {
+                attributes.add(new MBeanAttributeInfo(name + "." + stat, "long", stat + " of " + name, true, false, false));
+            }
+        }
+        for (String name : counters.keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, "long", "counter", true, false, false));
+        }
+        for (String name : gauges.keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, "long", "gauge", true, false, false));
+        }
+        MBeanOperationInfo dump = new MBeanOperationInfo("dump", "All instruments as text", null, "java.lang.String",
+                MBeanOperationInfo.INFO);
+        return new MBeanInfo(getClass().getName(), "Dispatch latency, routing work and fleet utilization",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] {dump}, null);
+    }
+}
@@ -0,0 +1,102 @@
+// Case-insensitive hash map from names to values, with the same matching rules as
+// String.equalsIgnoreCase. Keys are hashed character by character, so lookups never
+// allocate a lower-cased copy of the query. Open addressing with linear probing.
+public class NameIndex<V> {
+    private String[] keys = new String[16];
+    private Object[] values = new Object[16];
+    private int size;
+
+    synchronized void put(String key, V value) {
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        int slot = find(keys, key);
+        if (keys[slot] == null) {
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized V get(String key) {
+        if (key == null) {
+            return null;
+        }
+        int slot = find(keys, key);
+        return keys[slot] == null ? null : (V) values[slot];
+    }
+
+    // Same as get(text.substring(start, end)), without the substring
+    @SuppressWarnings("unchecked")
+    synchronized V get(String text, int start, int end) {
+        int mask = keys.length - 1;
+        int length = end - start;
+        int i = foldedHash(text, start, end) & mask;
+        while (keys[i] != null && !(keys[i].length() == length && keys[i].regionMatches(true, 0, text, start, length))) {
+            i = (i + 1) & mask;
+        }
+        return keys[i] == null ? null : (V) values[i];
+    }
+
+    synchronized void remove(String key) {
+        int slot = find(keys, key);
+        if (keys[slot] == null) {
+            return;
+        }
+        keys[slot] = null;
+        values[slot] = null;
+        size--;
+        // Re-seat the rest of the probe run so later lookups do not stop at the hole
+        int mask = keys.length - 1;
+        for (int i = (slot + 1) & mask; keys[i] != null; i = (i + 1) & mask) {
+            String k = keys[i];
+            Object v = values[i];
+            keys[i] = null;
+            values[i] = null;
+            int to = find(keys, k);
+            keys[to] = k;
+            values[to] = v;
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private void resize(int capacity) {
+        String[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new String[capacity];
+        values = new Object[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = find(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int find(String[] table, String key) {
+        int mask = table.length - 1;
+        int i = foldedHash(key) & mask;
+        while (table[i] != null && !table[i].equalsIgnoreCase(key)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    // Hash that agrees with equalsIgnoreCase: both cases of a letter hash the same
+    static int foldedHash(String s) {
+        return foldedHash(s, 0, s.length());
+    }
+
+    static int foldedHash(String s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+        }
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,382 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Precomputed "nearest hospitals" table for every location on the road graph.
+// One multi-source Dijkstra over incoming edges, seeded at every hospital node, keeps
+// the k closest hospitals per location, so dispatch lookups are array reads.
+// Ties are broken by hospital locationId, the same order the BST scan used.
+public class NearestHospitalIndex implements RoadGraph.Listener {
+    static final int DEFAULT_TOP_K = 3;
+
+    private final RoadGraph graph;
+    private final int k;
+    private final Hospital[] hospitals; // indexed by rank (locationId order)
+    private final int[] hospitalNodes;
+    private final int[] hospitalAt; // lowest rank based at each node, -1 if none
+
+    // Label i of node x lives at x * k + i, sorted by (distance, rank)
+    private final int[] labelRank;
+    private final int[] labelDist;
+    private final int[] labelVia; // next node towards the hospital, -1 at the hospital itself
+
+    // Work queue of candidate labels: heap keys are (distance << 32 | entry)
+    private long[] heap = new long[64];
+    private int heapSize;
+    private int[] entryNode = new int[64];
+    private int[] entryRank = new int[64];
+    private int entryCount;
+
+    // Scratch space for repairIncrease
+    private final boolean[] affected;     // per label slot
+    private final boolean[] affectedNode;
+    private int[] affectedSlots = new int[64];
+    private int[] affectedNodes = new int[64];
+
+    public NearestHospitalIndex(RoadGraph graph, HospitalBST hospitalTree) {
+        this(graph, hospitalTree, DEFAULT_TOP_K);
+    }
+
+    public NearestHospitalIndex(RoadGraph graph, HospitalBST hospitalTree, int k) {
+        this.graph = graph;
+        this.k = k;
+        List<Hospital> onMap = new ArrayList<>();
+        for (Hospital h : hospitalTree) {
+            if (graph.id(h.getName()) != -1) {
+                onMap.add(h);
+            }
+        }
+        hospitals = onMap.toArray(new Hospital[0]);
+        hospitalNodes = new int[hospitals.length];
+        hospitalAt = new int[graph.nodeCount()];
+        Arrays.fill(hospitalAt, -1);
+        for (int r = hospitals.length - 1; r >= 0; r--) {
+            hospitalNodes[r] = graph.id(hospitals[r].getName());
+            hospitalAt[hospitalNodes[r]] = r;
+        }
+        int slots = graph.nodeCount() * k;
+        labelRank = new int[slots];
+        labelDist = new int[slots];
+        labelVia = new int[slots];
+        affected = new boolean[slots];
+        affectedNode = new boolean[graph.nodeCount()];
+        rebuild();
+        graph.addListener(this);
+    }
+
+    // Recomputes every label from scratch
+    synchronized void rebuild() {
+        Arrays.fill(labelRank, -1);
+        Arrays.fill(labelDist, DijkstraSearch.INF);
+        Arrays.fill(labelVia, -1);
+        for (int r = 0; r < hospitals.length; r++) {
+            if (offer(hospitalNodes[r], r, 0, -1)) {
+                push(hospitalNodes[r], r, 0);
+            }
+        }
+        propagate();
+    }
+
+    // Nearest hospital for a location, or null if the location is unknown or cut off
+    Hospital nearest(String area) {
+        return nearest(area, 0);
+    }
+
+    // The i-th nearest hospital (0-based) for a location, or null if there is none
+    synchronized Hospital nearest(String area, int i) {
+        int node = graph.id(area);
+        if (node == -1 || i >= k || labelRank[node * k + i] == -1) {
+            return null;
+        }
+        return hospitals[labelRank[node * k + i]];
+    }
+
+    int nearestDistance(String area) {
+        return nearestDistance(area, 0);
+    }
+
+    // Road distance to the i-th nearest hospital, or Integer.MAX_VALUE if there is none
+    synchronized int nearestDistance(String area, int i) {
+        int node = graph.id(area);
+        if (node == -1 || i >= k) {
+            return DijkstraSearch.INF;
+        }
+        return labelDist[node * k + i];
+    }
+
+    // Nearest hospital with a free doctor for the injury, or null if none can be reached.
+    // The top-k labels answer most calls; past them the search walks the road graph outwards.
+    Hospital nearestWithFreeDoctor(String area, String injuryType) {
+        int node = graph.id(area);
+        if (node == -1) {
+            return null;
+        }
+        synchronized (this) {
+            for (int i = node * k, end = i + k; i < end && labelRank[i] != -1; i++) {
+                Hospital h = hospitals[labelRank[i]];
+                if (h.freeDoctor(injuryType) != null) {
+                    return h;
+                }
+            }
+        }
+        DijkstraSearch search = graph.forwardSearch();
+        search.start(node);
+        for (int u; (u = search.next()) != -1; ) {
+            if (hospitalAt[u] == -1) {
+                continue;
+            }
+            for (int r = hospitalAt[u]; r < hospitals.length; r++) {
+                if (hospitalNodes[r] == u && hospitals[r].freeDoctor(injuryType) != null) {
+                    return hospitals[r];
+                }
+            }
+        }
+        return null;
+    }
+
+    int topK() {
+        return k;
+    }
+
+    @Override
+    public synchronized void edgeChanged(int from, int to, int oldWeight, int newWeight) {
+        if (newWeight < oldWeight) {
+            // Shorter road: only labels that can now go through it improve
+            for (int i = 0; i < k; i++) {
+                int slot = to * k + i;
+                if (labelRank[slot] == -1) {
+                    break;
+                }
+                long d = (long) labelDist[slot] + newWeight;
+                if (d < DijkstraSearch.INF && offer(from, labelRank[slot], (int) d, to)) {
+                    push(from, labelRank[slot], (int) d);
+                }
+            }
+            propagate();
+        } else if (newWeight > oldWeight) {
+            repairIncrease(from, to);
+        }
+    }
+
+    @Override
+    public void weightsChanged() {
+        rebuild();
+    }
+
+    // Longer (or closed) road from -> to. Only labels routed over it, and labels that reach
+    // their hospital through one of those, can get worse: they are dropped and refilled from
+    // the labels of their neighbours, everything else is left alone.
+    private void repairIncrease(int from, int to) {
+        int stackSize = 0;
+        for (int i = from * k, end = i + k; i < end && labelRank[i] != -1; i++) {
+            if (labelVia[i] == to) {
+                stackSize = mark(i, stackSize);
+            }
+        }
+        if (stackSize == 0) {
+            return; // nothing was routed over it
+        }
+        // Follow via pointers backwards: p depends on (x, r) if p's label for r goes through x
+        for (int s = 0; s < stackSize; s++) {
+            int slot = affectedSlots[s];
+            int x = slot / k;
+            int r = labelRank[slot];
+            for (int i = graph.revOffsets[x]; i < graph.revOffsets[x + 1]; i++) {
+                int p = graph.revSources[i];
+                for (int j = p * k, end = j + k; j < end && labelRank[j] != -1; j++) {
+                    if (labelRank[j] == r) {
+                        if (labelVia[j] == x && !affected[j]) {
+                            stackSize = mark(j, stackSize);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        // Drop the affected labels, keeping each list sorted and packed at the front
+        int nodes = 0;
+        for (int s = 0; s < stackSize; s++) {
+            int node = affectedSlots[s] / k;
+            if (!affectedNode[node]) {
+                affectedNode[node] = true;
+                if (nodes == affectedNodes.length) {
+                    affectedNodes = Arrays.copyOf(affectedNodes, nodes * 2);
+                }
+                affectedNodes[nodes++] = node;
+            }
+        }
+        for (int a = 0; a < nodes; a++) {
+            int base = affectedNodes[a] * k;
+            int kept = base;
+            for (int i = base; i < base + k; i++) {
+                if (affected[i]) {
+                    affected[i] = false;
+                } else if (labelRank[i] != -1) {
+                    labelRank[kept] = labelRank[i];
+                    labelDist[kept] = labelDist[i];
+                    labelVia[kept] = labelVia[i];
+                    kept++;
+                }
+            }
+            for (int i = kept; i < base + k; i++) {
+                labelRank[i] = -1;
+                labelDist[i] = DijkstraSearch.INF;
+                labelVia[i] = -1;
+            }
+        }
+
+        // Refill from every neighbour's surviving labels, then let improvements spread
+        for (int a = 0; a < nodes; a++) {
+            int p = affectedNodes[a];
+            affectedNode[p] = false;
+            for (int e = graph.offsets[p]; e < graph.offsets[p + 1]; e++) {
+                int w = graph.weights[e];
+                if (w == DijkstraSearch.INF) {
+                    continue;
+                }
+                int x = graph.targets[e];
+                for (int j = x * k, end = j + k; j < end && labelRank[j] != -1; j++) {
+                    long d = (long) labelDist[j] + w;
+                    if (d < DijkstraSearch.INF && offer(p, labelRank[j], (int) d, x)) {
+                        push(p, labelRank[j], (int) d);
+                    }
+                }
+            }
+        }
+        propagate();
+    }
+
+    private int mark(int slot, int stackSize) {
+        affected[slot] = true;
+        if (stackSize == affectedSlots.length) {
+            affectedSlots = Arrays.copyOf(affectedSlots, stackSize * 2);
+        }
+        affectedSlots[stackSize] = slot;
+        return stackSize + 1;
+    }
+
+    // Drains the work queue, pushing improved labels backwards along incoming edges. Each drain
+    // counts as one search in the graph's metrics, a settled label as a settled node.
+    private void propagate() {
+        int settled = 0;
+        while (heapSize > 0) {
+            long top = pop();
+            int d = (int) (top >>> 32);
+            int entry = (int) top;
+            int x = entryNode[entry];
+            int r = entryRank[entry];
+            if (labelDistOf(x, r) != d) {
+                continue; // superseded by a shorter label
+            }
+            settled++;
+            for (int i = graph.revOffsets[x]; i < graph.revOffsets[x + 1]; i++) {
+                int w = graph.weights[graph.revEdges[i]];
+                if (w == DijkstraSearch.INF) {
+                    continue;
+                }
+                long nd = (long) d + w;
+                int p = graph.revSources[i];
+                if (nd < DijkstraSearch.INF && offer(p, r, (int) nd, x)) {
+                    push(p, r, (int) nd);
+                }
+            }
+        }
+        entryCount = 0;
+        if (settled > 0) {
+            graph.recordSearch(settled);
+        }
+    }
+
+    private int labelDistOf(int node, int rank) {
+        for (int i = node * k, end = i + k; i < end && labelRank[i] != -1; i++) {
+            if (labelRank[i] == rank) {
+                return labelDist[i];
+            }
+        }
+        return DijkstraSearch.INF;
+    }
+
+    // Tries to record hospital `rank` at distance d for node; true if the top-k list changed
+    private boolean offer(int node, int rank, int d, int via) {
+        int base = node * k;
+        int end = base + k;
+        int existing = -1;
+        for (int i = base; i < end && labelRank[i] != -1; i++) {
+            if (labelRank[i] == rank) {
+                if (labelDist[i] <= d) {
+                    return false;
+                }
+                existing = i;
+                break;
+            }
+        }
+        int last = existing != -1 ? existing : end - 1;
+        if (existing == -1 && labelRank[last] != -1 && !before(d, rank, labelDist[last], labelRank[last])) {
+            return false; // not good enough for the top k
+        }
+        // Shift worse labels down over the freed slot, then drop the new one in
+        int i = last;
+        while (i > base && (labelRank[i - 1] == -1 || before(d, rank, labelDist[i - 1], labelRank[i - 1]))) {
+            labelRank[i] = labelRank[i - 1];
+            labelDist[i] = labelDist[i - 1];
+            labelVia[i] = labelVia[i - 1];
+            i--;
+        }
+        labelRank[i] = rank;
+        labelDist[i] = d;
+        labelVia[i] = via;
+        return true;
+    }
+
+    private static boolean before(int d1, int r1, int d2, int r2) {
+        return d1 < d2 || (d1 == d2 && r1 < r2);
+    }
+
+    private void push(int node, int rank, int d) {
+        if (entryCount == entryNode.length) {
+            entryNode = Arrays.copyOf(entryNode, entryCount * 2);
+            entryRank = Arrays.copyOf(entryRank, entryCount * 2);
+        }
+        entryNode[entryCount] = node;
+        entryRank[entryCount] = rank;
+        long key = ((long) d << 32) | entryCount;
+        entryCount++;
+
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heapSize * 2);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= key) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = key;
+    }
+
+    private long pop() {
+        long top = heap[0];
+        long last = heap[--heapSize];
+        int i = 0;
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (last <= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        if (heapSize > 0) {
+            heap[i] = last;
+        }
+        return top;
+    }
+}
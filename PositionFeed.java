@@ -0,0 +1,138 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Live ambulance positions, one fix per line: "ambulanceId,latitude,longitude".
+// Stands in for a GPS gateway: fixes are read from a file that is followed as it grows
+// (like tail -f) or from any number of TCP connections, each on its own daemon thread.
+// Every fix moves the unit in its FleetTable and so in the fleet's spatial index.
+public class PositionFeed {
+    static final long POLL_MILLIS = 200;
+
+    private final HospitalRegistry registry;
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong(); // malformed lines and unknown units
+    private volatile boolean stopped;
+    private volatile ServerSocket server;
+
+    public PositionFeed(HospitalRegistry registry) {
+        this.registry = registry;
+    }
+
+    // Applies one fix; false if the line is malformed or names an unknown unit
+    boolean apply(String line) {
+        String[] fields = line.split(",");
+        Ambulance amb = fields.length == 3 ? registry.ambulance(fields[0].trim()) : null;
+        if (amb != null) {
+            try {
+                double lat = Double.parseDouble(fields[1].trim());
+                double lon = Double.parseDouble(fields[2].trim());
+                if (Math.abs(lat) <= 90 && Math.abs(lon) <= 180) {
+                    amb.setPosition(lat, lon);
+                    applied.incrementAndGet();
+                    return true;
+                }
+            } catch (NumberFormatException e) {
+                // counted below
+            }
+        }
+        if (!line.trim().isEmpty() && !line.startsWith("#")) {
+            rejected.incrementAndGet();
+        }
+        return false;
+    }
+
+    // Applies the file's fixes, then keeps polling it for appended lines until stop()
+    void follow(Path file) {
+        start("position-feed-" + file.getFileName(), () -> {
+            try (RandomAccessFile in = new RandomAccessFile(file.toFile(), "r")) {
+                ByteArrayOutputStream partial = new ByteArrayOutputStream(); // a line still being written
+                byte[] buffer = new byte[8192];
+                while (!stopped) {
+                    int n = in.read(buffer);
+                    if (n == -1) {
+                        Thread.sleep(POLL_MILLIS);
+                        continue;
+                    }
+                    int start = 0;
+                    for (int i = 0; i < n; i++) {
+                        if (buffer[i] == '\n') {
+                            partial.write(buffer, start, i - start);
+                            apply(new String(partial.toByteArray(), StandardCharsets.UTF_8));
+                            partial.reset();
+                            start = i + 1;
+                        }
+                    }
+                    partial.write(buffer, start, n - start);
+                }
+            } catch (IOException e) {
+                System.out.println("Position feed " + file + " stopped: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    // Accepts connections on the port and applies the fixes sent over each of them
+    void listen(int port) throws IOException {
+        ServerSocket socket = new ServerSocket(port);
+        server = socket;
+        start("position-feed-" + port, () -> {
+            try (ServerSocket s = socket) {
+                while (!stopped) {
+                    Socket client = s.accept();
+                    start("position-feed-client", () -> read(client));
+                }
+            } catch (IOException e) {
+                if (!stopped) {
+                    System.out.println("Position feed on port " + port + " stopped: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private void read(Socket client) {
+        try (Socket c = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(c.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while (!stopped && (line = in.readLine()) != null) {
+                apply(line);
+            }
+        } catch (IOException e) {
+            // client went away
+        }
+    }
+
+    private void start(String name, Runnable task) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    void stop() {
+        stopped = true;
+        ServerSocket socket = server;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    long applied() {
+        return applied.get();
+    }
+
+    long rejected() {
+        return rejected.get();
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Hospitals, their fleet and doctors, plus the road graph of one region.
+// Loaded from a directory of CSV files:
+//   hospitals.csv   locationId,name
+//   ambulances.csv  hospitalLocationId,ambulanceId
+//   doctors.csv     hospitalLocationId,name,specialization
+//   roads.csv       from,to,km          (one direction per line)
+//   nodes.csv       name,latitude,longitude   (optional; enables A* routing when every node has one)
+// An optional header line (as above) and lines starting with '#' are skipped; fields may be double-quoted.
+// The first load compiles everything into region.snapshot next to the CSVs, and later
+// starts map that snapshot instead of parsing, as long as it is newer than every CSV.
+public class Region {
+    static final String SNAPSHOT_FILE = "region.snapshot";
+    static final String HIERARCHY_FILE = "region.ch";
+    static final String[] CSV_FILES = {"hospitals.csv", "ambulances.csv", "doctors.csv", "roads.csv", "nodes.csv"};
+
+    final HospitalBST hospitals;
+    final RoadGraph roads;
+
+    Region(HospitalBST hospitals, RoadGraph roads) {
+        this.hospitals = hospitals;
+        this.roads = roads;
+    }
+
+    // Opens a region from a CSV directory (using or refreshing its snapshot) or from a snapshot file
+    static Region open(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return RegionSnapshot.read(path);
+        }
+        Path snapshot = path.resolve(SNAPSHOT_FILE);
+        if (isFresh(snapshot, path)) {
+            try {
+                return RegionSnapshot.read(snapshot);
+            } catch (IOException e) {
+                // Older format or damaged file: fall through and rebuild it
+            }
+        }
+        Region region = fromCsv(path);
+        RegionSnapshot.write(region, snapshot);
+        return region;
+    }
+
+    // Route hierarchy kept next to the region's CSVs or snapshot; built and stored on first use
+    // and whenever the stored one was made for other road weights
+    static ContractionHierarchy openHierarchy(Path path, RoadGraph roads) throws IOException {
+        Path file = Files.isDirectory(path) ? path.resolve(HIERARCHY_FILE) : path.resolveSibling(HIERARCHY_FILE);
+        return ContractionHierarchy.open(roads, file);
+    }
+
+    // The stored location x hospital matrix next to the region (see DistanceMatrix), or null if
+    // there is none. Fails if it was computed for other roads or hospitals.
+    static DistanceMatrix openMatrix(Path path, RoadGraph roads, HospitalBST hospitals) throws IOException {
+        Path file = Files.isDirectory(path) ? path.resolve(DistanceMatrix.MATRIX_FILE) : path.resolveSibling(DistanceMatrix.MATRIX_FILE);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        DistanceMatrix matrix = DistanceMatrix.read(roads, file);
+        if (!matrix.covers(hospitals)) {
+            throw new IOException("Distance matrix is for other hospitals: " + file);
+        }
+        return matrix;
+    }
+
+    private static boolean isFresh(Path snapshot, Path dir) throws IOException {
+        if (!Files.exists(snapshot)) {
+            return false;
+        }
+        FileTime built = Files.getLastModifiedTime(snapshot);
+        for (String csv : CSV_FILES) {
+            Path file = dir.resolve(csv);
+            if (Files.exists(file) && Files.getLastModifiedTime(file).compareTo(built) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Region fromCsv(Path dir) throws IOException {
+        HospitalBST tree = new HospitalBST();
+        Map<Integer, Hospital> byId = new HashMap<>();
+        for (String[] row : readCsv(dir.resolve("hospitals.csv"), 2, "locationId")) {
+            Hospital hospital = new Hospital(parseInt(row[0], "hospitals.csv"), row[1]);
+            byId.put(hospital.locationId, hospital);
+            tree.insert(hospital);
+        }
+        for (String[] row : readCsv(dir.resolve("ambulances.csv"), 2, "hospitalLocationId")) {
+            hospital(byId, row[0], "ambulances.csv").addAmbulance(row[1]);
+        }
+        for (String[] row : readCsv(dir.resolve("doctors.csv"), 3, "hospitalLocationId")) {
+            hospital(byId, row[0], "doctors.csv").addDoctor(row[1], row[2]);
+        }
+
+        Map<String, Map<String, Integer>> graph = new LinkedHashMap<>();
+        for (String[] row : readCsv(dir.resolve("roads.csv"), 3, "from")) {
+            graph.computeIfAbsent(row[0], k -> new LinkedHashMap<>()).put(row[1], parseInt(row[2], "roads.csv"));
+            graph.computeIfAbsent(row[1], k -> new LinkedHashMap<>());
+        }
+        RoadGraph roads = RoadGraph.compile(graph);
+
+        List<String[]> nodes = readCsv(dir.resolve("nodes.csv"), 3, "name");
+        if (!nodes.isEmpty()) {
+            double[] latitude = new double[roads.nodeCount()];
+            double[] longitude = new double[roads.nodeCount()];
+            Arrays.fill(latitude, Double.NaN);
+            Arrays.fill(longitude, Double.NaN);
+            for (String[] row : nodes) {
+                int node = roads.id(row[0]);
+                if (node != -1) {
+                    latitude[node] = parseDouble(row[1], "nodes.csv");
+                    longitude[node] = parseDouble(row[2], "nodes.csv");
+                }
+            }
+            roads.setCoordinates(latitude, longitude);
+        }
+        return new Region(tree, roads);
+    }
+
+    private static Hospital hospital(Map<Integer, Hospital> byId, String id, String file) throws IOException {
+        Hospital hospital = byId.get(parseInt(id, file));
+        if (hospital == null) {
+            throw new IOException(file + ": unknown hospital id " + id);
+        }
+        return hospital;
+    }
+
+    private static int parseInt(String value, String file) throws IOException {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException(file + ": not a number: " + value);
+        }
+    }
+
+    private static double parseDouble(String value, String file) throws IOException {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException(file + ": not a number: " + value);
+        }
+    }
+
+    // Rows with at least `columns` fields; a leading line whose first field is `header` is skipped
+    // and a missing file reads as empty
+    static List<String[]> readCsv(Path file, int columns, String header) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return rows;
+        }
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            boolean first = true;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = splitCsv(line);
+                if (first) {
+                    first = false;
+                    if (fields[0].equalsIgnoreCase(header)) {
+                        continue;
+                    }
+                }
+                if (fields.length < columns) {
+                    throw new IOException(file.getFileName() + ": expected " + columns + " fields: " + line);
+                }
+                rows.add(fields);
+            }
+        }
+        return rows;
+    }
+
+    private static String[] splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields.toArray(new String[0]);
+    }
+}
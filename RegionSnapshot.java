@@ -0,0 +1,229 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Binary image of a Region that starts without any parsing or graph compilation.
+// Layout (big-endian ints): "ATSN", version, then
+//   strings    count, byte offsets[count + 1], UTF-8 bytes (padded to 4)
+//   graph      nodes, edges, name string[nodes], declared byte[nodes] (padded to 4),
+//              offsets, targets, weights, revOffsets, revSources, revEdges,
+//              has coordinates (0/1), then latitude and longitude double[nodes] if 1
+//   hospitals  count, {locationId, name string}
+//   fleet      count, {hospital index, ambulance id string}
+//   doctors    count, {hospital index, name string, specialization string}
+// Every name appears once in the string table; reading maps the file and bulk-copies the arrays.
+public class RegionSnapshot {
+    private static final int MAGIC = ('A' << 24) | ('T' << 16) | ('S' << 8) | 'N';
+    private static final int VERSION = 2;
+
+    static void write(Region region, Path path) throws IOException {
+        RoadGraph graph = region.roads;
+        List<Hospital> hospitals = region.hospitals.getSortedHospitals();
+        Map<String, Integer> interned = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for (String name : graph.names) {
+            intern(name, interned, strings);
+        }
+        for (Hospital h : hospitals) {
+            intern(h.getName(), interned, strings);
+            for (Ambulance amb : h.getAmbulances()) {
+                intern(amb.ambulanceId, interned, strings);
+            }
+            for (Doctor d : h.doctors) {
+                intern(d.name, interned, strings);
+                intern(d.specialization, interned, strings);
+            }
+        }
+
+        // Written next to the target and moved into place, so a reader never sees half a file
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            byte[][] utf8 = new byte[strings.size()][];
+            int[] stringOffsets = new int[utf8.length + 1];
+            for (int i = 0; i < utf8.length; i++) {
+                utf8[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+                stringOffsets[i + 1] = stringOffsets[i] + utf8[i].length;
+            }
+            out.writeInt(utf8.length);
+            writeInts(out, stringOffsets);
+            for (byte[] bytes : utf8) {
+                out.write(bytes);
+            }
+            pad(out, stringOffsets[utf8.length]);
+
+            int n = graph.nodeCount();
+            out.writeInt(n);
+            out.writeInt(graph.edgeCount());
+            for (String name : graph.names) {
+                out.writeInt(interned.get(name));
+            }
+            for (boolean declared : graph.declared) {
+                out.writeByte(declared ? 1 : 0);
+            }
+            pad(out, n);
+            writeInts(out, graph.offsets);
+            writeInts(out, graph.targets);
+            writeInts(out, graph.weights);
+            writeInts(out, graph.revOffsets);
+            writeInts(out, graph.revSources);
+            writeInts(out, graph.revEdges);
+            out.writeInt(graph.hasCoordinates() ? 1 : 0);
+            if (graph.hasCoordinates()) {
+                for (int i = 0; i < n; i++) {
+                    out.writeDouble(graph.latitude(i));
+                }
+                for (int i = 0; i < n; i++) {
+                    out.writeDouble(graph.longitude(i));
+                }
+            }
+
+            int units = 0;
+            int doctors = 0;
+            out.writeInt(hospitals.size());
+            for (Hospital h : hospitals) {
+                out.writeInt(h.locationId);
+                out.writeInt(interned.get(h.getName()));
+                units += h.getAmbulances().size();
+                doctors += h.doctors.size();
+            }
+            out.writeInt(units);
+            for (int i = 0; i < hospitals.size(); i++) {
+                for (Ambulance amb : hospitals.get(i).getAmbulances()) {
+                    out.writeInt(i);
+                    out.writeInt(interned.get(amb.ambulanceId));
+                }
+            }
+            out.writeInt(doctors);
+            for (int i = 0; i < hospitals.size(); i++) {
+                for (Doctor d : hospitals.get(i).doctors) {
+                    out.writeInt(i);
+                    out.writeInt(interned.get(d.name));
+                    out.writeInt(interned.get(d.specialization));
+                }
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static Region read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                if (map.getInt() != MAGIC) {
+                    throw new IOException("Not a region snapshot: " + path);
+                }
+                if (map.getInt() != VERSION) {
+                    throw new IOException("Unsupported region snapshot version: " + path);
+                }
+
+                int[] stringOffsets = readInts(map, map.getInt() + 1);
+                String[] strings = new String[stringOffsets.length - 1];
+                int base = map.position();
+                byte[] bytes = new byte[stringOffsets[strings.length]];
+                map.get(bytes);
+                for (int i = 0; i < strings.length; i++) {
+                    strings[i] = new String(bytes, stringOffsets[i], stringOffsets[i + 1] - stringOffsets[i], StandardCharsets.UTF_8);
+                }
+                map.position(align(base + bytes.length));
+
+                int n = map.getInt();
+                int m = map.getInt();
+                String[] names = new String[n];
+                int[] nameIds = readInts(map, n);
+                for (int i = 0; i < n; i++) {
+                    names[i] = strings[nameIds[i]];
+                }
+                boolean[] declared = new boolean[n];
+                for (int i = 0; i < n; i++) {
+                    declared[i] = map.get() != 0;
+                }
+                map.position(align(map.position()));
+                int[] offsets = readInts(map, n + 1);
+                int[] targets = readInts(map, m);
+                int[] weights = readInts(map, m);
+                int[] revOffsets = readInts(map, n + 1);
+                int[] revSources = readInts(map, m);
+                int[] revEdges = readInts(map, m);
+                RoadGraph roads = new RoadGraph(names, declared, offsets, targets, weights, revOffsets, revSources, revEdges);
+                if (map.getInt() == 1) {
+                    double[] latitude = new double[n];
+                    double[] longitude = new double[n];
+                    map.asDoubleBuffer().get(latitude);
+                    map.position(map.position() + n * 8);
+                    map.asDoubleBuffer().get(longitude);
+                    map.position(map.position() + n * 8);
+                    roads.setCoordinates(latitude, longitude);
+                }
+
+                Hospital[] hospitals = new Hospital[map.getInt()];
+                for (int i = 0; i < hospitals.length; i++) {
+                    hospitals[i] = new Hospital(map.getInt(), strings[map.getInt()]);
+                }
+                int units = map.getInt();
+                for (int i = 0; i < units; i++) {
+                    Hospital h = hospitals[map.getInt()];
+                    h.addAmbulance(strings[map.getInt()]);
+                }
+                int doctors = map.getInt();
+                for (int i = 0; i < doctors; i++) {
+                    Hospital h = hospitals[map.getInt()];
+                    h.addDoctor(strings[map.getInt()], strings[map.getInt()]);
+                }
+
+                HospitalBST tree = new HospitalBST();
+                for (Hospital h : hospitals) {
+                    tree.insert(h);
+                }
+                return new Region(tree, roads);
+            } catch (RuntimeException e) {
+                // Truncated file or an index out of range
+                throw new IOException("Corrupt region snapshot: " + path, e);
+            }
+        }
+    }
+
+    private static void intern(String s, Map<String, Integer> interned, List<String> strings) {
+        if (!interned.containsKey(s)) {
+            interned.put(s, strings.size());
+            strings.add(s);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer in, int count) {
+        int[] values = new int[count];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + count * 4);
+        return values;
+    }
+
+    private static void pad(DataOutputStream out, int written) throws IOException {
+        for (int i = written; i % 4 != 0; i++) {
+            out.writeByte(0);
+        }
+    }
+
+    private static int align(int position) {
+        return (position + 3) & ~3;
+    }
+}
@@ -0,0 +1,36 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Fixed-capacity ring buffer of the most recent dispatch records.
+// Adding is O(1) and never grows the heap; the oldest record is overwritten.
+public class RequestHistory {
+    private final DispatchRecord[] slots;
+    private long count; // Records ever added
+
+    public RequestHistory(int capacity) {
+        this.slots = new DispatchRecord[capacity];
+    }
+
+    synchronized void add(DispatchRecord record) {
+        slots[(int) (count % slots.length)] = record;
+        count++;
+    }
+
+    // Retained records, oldest first
+    synchronized List<DispatchRecord> recent() {
+        int size = size();
+        List<DispatchRecord> records = new ArrayList<>(size);
+        for (long i = count - size; i < count; i++) {
+            records.add(slots[(int) (i % slots.length)]);
+        }
+        return records;
+    }
+
+    synchronized int size() {
+        return (int) Math.min(count, slots.length);
+    }
+
+    synchronized long totalRecorded() {
+        return count;
+    }
+}
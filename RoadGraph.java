@@ -0,0 +1,469 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Road network compiled into compressed sparse row (CSR) form.
+// Location names are interned to dense int ids once, so searches only touch primitive arrays.
+public class RoadGraph {
+    // Notified after a road's weight changes so derived tables can repair themselves
+    interface Listener {
+        void edgeChanged(int from, int to, int oldWeight, int newWeight);
+
+        // Many weights changed at once (see setWeights); derived tables should start over
+        void weightsChanged();
+    }
+
+    final String[] names;
+    final boolean[] declared; // true if the node was a key of the source map
+    final Map<String, Integer> ids;
+
+    // Outgoing edges of u are targets/weights[offsets[u] .. offsets[u + 1])
+    final int[] offsets;
+    final int[] targets;
+    final int[] weights;
+
+    // Incoming edges of v are revSources[revOffsets[v] .. revOffsets[v + 1]),
+    // revEdges points back into weights so both directions share one weight per road
+    final int[] revOffsets;
+    final int[] revSources;
+    final int[] revEdges;
+
+    private final ThreadLocal<DijkstraSearch> forwardSearch = new ThreadLocal<>();
+    private final ThreadLocal<DijkstraSearch> reverseSearch = new ThreadLocal<>();
+    private final ThreadLocal<RouteSearch> routeSearch = new ThreadLocal<>();
+    private volatile DistanceCache distanceCache;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile int version; // bumped on every weight change
+
+    // Optional node coordinates in degrees, for A* routing. kmPerUnit scales straight-line
+    // km so it never exceeds road km on any edge, which keeps the A* bound admissible.
+    private volatile double[] latitude; // written last, so a reader that sees it also sees longitude
+    private double[] longitude;
+    private volatile double kmPerUnit = 1;
+    private volatile ContractionHierarchy hierarchy; // answers route() when set
+    private final AtomicBoolean rebuildingHierarchy = new AtomicBoolean();
+    private volatile SpatialGrid nodeGrid; // nodes by position, built with the coordinates
+    private volatile Metrics metrics; // route timings and settled nodes when set
+
+    RoadGraph(String[] names, boolean[] declared, int[] offsets, int[] targets, int[] weights) {
+        this(names, declared, offsets, targets, weights, reverseIndex(names.length, offsets, targets));
+    }
+
+    private RoadGraph(String[] names, boolean[] declared, int[] offsets, int[] targets, int[] weights, int[][] reverse) {
+        this(names, declared, offsets, targets, weights, reverse[0], reverse[1], reverse[2]);
+    }
+
+    // Takes every array as is, e.g. straight out of a RegionSnapshot
+    RoadGraph(String[] names, boolean[] declared, int[] offsets, int[] targets, int[] weights,
+              int[] revOffsets, int[] revSources, int[] revEdges) {
+        this.names = names;
+        this.declared = declared;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.revOffsets = revOffsets;
+        this.revSources = revSources;
+        this.revEdges = revEdges;
+        this.ids = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            ids.put(names[i], i);
+        }
+    }
+
+    // Incoming-edge CSR arrays {revOffsets, revSources, revEdges} for the given outgoing edges
+    private static int[][] reverseIndex(int n, int[] offsets, int[] targets) {
+        int[] revOffsets = new int[n + 1];
+        int[] revSources = new int[targets.length];
+        int[] revEdges = new int[targets.length];
+        for (int e = 0; e < targets.length; e++) {
+            revOffsets[targets[e] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            revOffsets[v + 1] += revOffsets[v];
+        }
+        int[] fill = new int[n];
+        for (int u = 0; u < n; u++) {
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                int v = targets[e];
+                int slot = revOffsets[v] + fill[v]++;
+                revSources[slot] = u;
+                revEdges[slot] = e;
+            }
+        }
+        return new int[][] {revOffsets, revSources, revEdges};
+    }
+
+    // Builds the compiled form of an adjacency map such as cityHospitalGraph
+    static RoadGraph compile(Map<String, Map<String, Integer>> graph) {
+        Map<String, Integer> ids = new LinkedHashMap<>();
+        for (String node : graph.keySet()) {
+            ids.put(node, ids.size());
+        }
+        int edgeCount = 0;
+        for (Map<String, Integer> edges : graph.values()) {
+            for (String v : edges.keySet()) {
+                if (!ids.containsKey(v)) {
+                    ids.put(v, ids.size());
+                }
+            }
+            edgeCount += edges.size();
+        }
+
+        int n = ids.size();
+        String[] names = ids.keySet().toArray(new String[0]);
+        boolean[] declared = new boolean[n];
+        int[] offsets = new int[n + 1];
+        int[] targets = new int[edgeCount];
+        int[] weights = new int[edgeCount];
+
+        int e = 0;
+        for (int u = 0; u < n; u++) {
+            offsets[u] = e;
+            Map<String, Integer> edges = graph.get(names[u]);
+            if (edges == null) {
+                continue;
+            }
+            declared[u] = true;
+            for (Map.Entry<String, Integer> edge : edges.entrySet()) {
+                targets[e] = ids.get(edge.getKey());
+                weights[e] = edge.getValue();
+                e++;
+            }
+        }
+        offsets[n] = e;
+        return new RoadGraph(names, declared, offsets, targets, weights);
+    }
+
+    int nodeCount() {
+        return names.length;
+    }
+
+    int edgeCount() {
+        return targets.length;
+    }
+
+    // Returns the interned id of a location, or -1 if it is not on the map
+    int id(String name) {
+        Integer id = name == null ? null : ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    int version() {
+        return version;
+    }
+
+    // Index of the edge from -> to, or -1 if there is no such road
+    int edge(int from, int to) {
+        for (int e = offsets[from]; e < offsets[from + 1]; e++) {
+            if (targets[e] == to) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    boolean hasCoordinates() {
+        return latitude != null;
+    }
+
+    double latitude(int node) {
+        return latitude[node];
+    }
+
+    double longitude(int node) {
+        return longitude[node];
+    }
+
+    // Attaches a position to every node; ignored unless every node has one
+    void setCoordinates(double[] latitude, double[] longitude) {
+        for (int i = 0; i < names.length; i++) {
+            if (Double.isNaN(latitude[i]) || Double.isNaN(longitude[i])) {
+                return;
+            }
+        }
+        double scale = 1;
+        for (int u = 0; u < names.length; u++) {
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                double straight = haversineKm(latitude[u], longitude[u], latitude[targets[e]], longitude[targets[e]]);
+                if (straight > 0 && weights[e] < scale * straight) {
+                    scale = weights[e] / straight;
+                }
+            }
+        }
+        SpatialGrid grid = new SpatialGrid();
+        for (int i = 0; i < names.length; i++) {
+            grid.put(i, latitude[i], longitude[i]);
+        }
+        synchronized (this) {
+            this.longitude = longitude;
+            this.kmPerUnit = scale;
+            this.nodeGrid = grid;
+            this.latitude = latitude;
+        }
+    }
+
+    // Node closest to a position in a straight line, e.g. to snap a GPS fix; -1 without coordinates
+    int nearestNode(double lat, double lon) {
+        SpatialGrid grid = nodeGrid;
+        return grid == null ? -1 : grid.nearest(lat, lon, node -> true);
+    }
+
+    double kmPerUnit() {
+        return kmPerUnit;
+    }
+
+    // Lower bound on the road distance between two nodes; 0 without coordinates
+    int lowerBound(int from, int to) {
+        double[] lat = latitude;
+        if (lat == null) {
+            return 0;
+        }
+        return (int) (kmPerUnit * haversineKm(lat[from], longitude[from], lat[to], longitude[to]));
+    }
+
+    static double haversineKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * 6371.0 * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    // Shortest route between two named locations, or null if either is unknown or unreachable
+    Route route(String from, String to) {
+        int u = id(from);
+        int v = id(to);
+        return u == -1 || v == -1 ? null : route(u, v);
+    }
+
+    Route route(int from, int to) {
+        ContractionHierarchy ch = freshHierarchy();
+        Metrics m = metrics;
+        if (m == null) {
+            return ch != null ? ch.route(from, to) : routeSearch().route(from, to);
+        }
+        long start = System.nanoTime();
+        Route route;
+        int settled;
+        if (ch != null) {
+            route = ch.route(from, to);
+            settled = ch.settledCount();
+        } else {
+            RouteSearch search = routeSearch();
+            route = search.route(from, to);
+            settled = search.settledCount();
+        }
+        m.routeNanos.record(System.nanoTime() - start);
+        countSearch(m, settled);
+        return route;
+    }
+
+    // Records into the metrics from now on: route() timings here, full searches in the distance cache
+    void useMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    Metrics metrics() {
+        return metrics;
+    }
+
+    // Counts one search over this graph that settled the given number of nodes, if metrics are on
+    void recordSearch(int settled) {
+        Metrics m = metrics;
+        if (m != null) {
+            countSearch(m, settled);
+        }
+    }
+
+    private static void countSearch(Metrics m, int settled) {
+        m.searches.increment();
+        m.settledNodes.add(settled);
+        m.settledPerSearch.record(settled);
+    }
+
+    // Routes through the hierarchy from now on. Once a weight changes it is rebuilt in the
+    // background, and route() falls back to RouteSearch until the new one is in.
+    void useHierarchy(ContractionHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+    }
+
+    // The hierarchy if it matches the current weights; null if there is none or it is stale,
+    // in which case a rebuild is started
+    private ContractionHierarchy freshHierarchy() {
+        ContractionHierarchy ch = hierarchy;
+        if (ch == null || ch.isFresh()) {
+            return ch;
+        }
+        Metrics m = metrics;
+        if (m != null) {
+            m.staleHierarchyRoutes.increment();
+        }
+        rebuildHierarchy(ch);
+        return null;
+    }
+
+    // One rebuild at a time on a daemon thread. Changes made while it runs leave the result
+    // stale too, and the next route() starts another, so a burst of edits costs one or two.
+    private void rebuildHierarchy(ContractionHierarchy stale) {
+        if (!rebuildingHierarchy.compareAndSet(false, true)) {
+            return;
+        }
+        Thread t = new Thread(() -> {
+            try {
+                long start = System.nanoTime();
+                ContractionHierarchy rebuilt = ContractionHierarchy.build(this);
+                if (hierarchy == stale) {
+                    hierarchy = rebuilt; // Unless useHierarchy replaced it meanwhile
+                }
+                Metrics m = metrics;
+                if (m != null) {
+                    m.hierarchyRebuilds.increment();
+                    m.hierarchyRebuildMillis.record((System.nanoTime() - start) / 1_000_000);
+                }
+            } finally {
+                rebuildingHierarchy.set(false);
+            }
+        }, "hierarchy-rebuild");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // Changes the weight of an existing road and notifies listeners; returns false if the road is unknown
+    boolean setWeight(String from, String to, int weight) {
+        int u = id(from);
+        int v = id(to);
+        return u != -1 && v != -1 && setWeight(u, v, weight);
+    }
+
+    boolean setWeight(int from, int to, int weight) {
+        int e = edge(from, to);
+        if (e == -1) {
+            return false;
+        }
+        setEdgeWeight(e, weight);
+        return true;
+    }
+
+    // Changes the weight of edge e (an index into targets/weights). Listeners are told while
+    // the graph is locked, so they see concurrent changes one at a time and in order.
+    synchronized void setEdgeWeight(int e, int weight) {
+        int from = source(e);
+        int to = targets[e];
+        int oldWeight = weights[e];
+        weights[e] = weight;
+        version++;
+        keepBoundAdmissible(from, to, weight);
+        if (oldWeight != weight) {
+            for (Listener listener : listeners) {
+                listener.edgeChanged(from, to, oldWeight, weight);
+            }
+        }
+    }
+
+    // Changes many edges under one version bump; listeners start over once instead of
+    // repairing edge by edge, which is cheaper when a large share of the roads change
+    synchronized void setEdgeWeights(int[] edges, int[] newWeights, int count) {
+        for (int i = 0; i < count; i++) {
+            int e = edges[i];
+            weights[e] = newWeights[i];
+            keepBoundAdmissible(source(e), targets[e], newWeights[i]);
+        }
+        version++;
+        for (Listener listener : listeners) {
+            listener.weightsChanged();
+        }
+    }
+
+    // A shorter road may undercut the straight-line A* bound
+    private void keepBoundAdmissible(int from, int to, int weight) {
+        if (latitude != null) {
+            double straight = haversineKm(latitude[from], longitude[from], latitude[to], longitude[to]);
+            if (straight > 0 && weight < kmPerUnit * straight) {
+                kmPerUnit = weight / straight;
+            }
+        }
+    }
+
+    // Node an edge leaves from: the last u with offsets[u] <= e
+    int source(int e) {
+        int lo = 0;
+        int hi = names.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets[mid] <= e) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    // Reusable per-thread search over outgoing edges
+    DijkstraSearch forwardSearch() {
+        DijkstraSearch search = forwardSearch.get();
+        if (search == null) {
+            search = new DijkstraSearch(this, false);
+            forwardSearch.set(search);
+        }
+        return search;
+    }
+
+    RouteSearch routeSearch() {
+        RouteSearch search = routeSearch.get();
+        if (search == null) {
+            search = new RouteSearch(this);
+            routeSearch.set(search);
+        }
+        return search;
+    }
+
+    // Reusable per-thread search over incoming edges (distances *to* the source)
+    DijkstraSearch reverseSearch() {
+        DijkstraSearch search = reverseSearch.get();
+        if (search == null) {
+            search = new DijkstraSearch(this, true);
+            reverseSearch.set(search);
+        }
+        return search;
+    }
+
+    // Shared cache of full forward distance vectors, created on first use
+    DistanceCache distanceCache() {
+        DistanceCache cache = distanceCache;
+        if (cache == null) {
+            synchronized (this) {
+                if (distanceCache == null) {
+                    distanceCache = new DistanceCache(this, false);
+                }
+                cache = distanceCache;
+            }
+        }
+        return cache;
+    }
+
+    // Converts a distance array back into the name-keyed map findShortestRoutes has always returned
+    Map<String, Integer> toDistanceMap(String source, int[] dist) {
+        Map<String, Integer> distances = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            if (declared[i] || dist[i] != DijkstraSearch.INF) {
+                distances.put(names[i], dist[i]);
+            }
+        }
+        if (source != null && !ids.containsKey(source)) {
+            distances.put(source, 0);
+        }
+        return distances;
+    }
+}
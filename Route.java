@@ -0,0 +1,28 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// A path through a RoadGraph: the nodes from origin to destination and its total length
+public class Route {
+    final RoadGraph graph;
+    final int[] nodes;
+    final int cost;
+
+    Route(RoadGraph graph, int[] nodes, int cost) {
+        this.graph = graph;
+        this.nodes = nodes;
+        this.cost = cost;
+    }
+
+    List<String> names() {
+        List<String> names = new ArrayList<>(nodes.length);
+        for (int node : nodes) {
+            names.add(graph.name(node));
+        }
+        return names;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(" -> ", names()) + " (" + cost + " km)";
+    }
+}
@@ -0,0 +1,243 @@
+import java.util.Arrays;
+
+// Point-to-point shortest paths on a RoadGraph. With node coordinates it runs A*, guided
+// by straight-line distance; without them, a bidirectional Dijkstra that grows one ball
+// around each end and stops once they meet. Either way only a small part of a large
+// graph is settled, unlike a full search from the origin. Buffers are reused between
+// queries and reset through touched lists, like DijkstraSearch. Not thread-safe.
+public class RouteSearch {
+    private static final int INF = DijkstraSearch.INF;
+    private static final double MIN_GUIDANCE = 0.5;
+
+    // One search direction: dist, parent pointers and an indexed heap keyed by priority.
+    // Also used by ContractionHierarchy queries.
+    static final class Side {
+        final int[] dist;
+        final int[] parent;
+        final int[] heap;
+        final long[] heapKey;
+        final int[] heapIndex;
+        final boolean[] settled;
+        final int[] touched;
+        int heapSize;
+        int touchedCount;
+
+        Side(int n) {
+            dist = new int[n];
+            parent = new int[n];
+            heap = new int[n];
+            heapKey = new long[n];
+            heapIndex = new int[n];
+            settled = new boolean[n];
+            touched = new int[n];
+            Arrays.fill(dist, INF);
+            Arrays.fill(heapIndex, -1);
+        }
+
+        void reset() {
+            for (int i = 0; i < touchedCount; i++) {
+                int node = touched[i];
+                dist[node] = INF;
+                heapIndex[node] = -1;
+                settled[node] = false;
+            }
+            touchedCount = 0;
+            heapSize = 0;
+        }
+
+        // Records d as the distance of v (reached from p) if it improves; key orders the heap
+        boolean relax(int v, int d, int p, long key) {
+            if (d < 0 || settled[v] || d >= dist[v]) {
+                return false;
+            }
+            if (dist[v] == INF && heapIndex[v] == -1) {
+                touched[touchedCount++] = v;
+            }
+            dist[v] = d;
+            parent[v] = p;
+            int i = heapIndex[v];
+            if (i == -1) {
+                i = heapSize++;
+            }
+            while (i > 0) {
+                int up = (i - 1) >>> 1;
+                if (heapKey[up] <= key) {
+                    break;
+                }
+                heap[i] = heap[up];
+                heapKey[i] = heapKey[up];
+                heapIndex[heap[i]] = i;
+                i = up;
+            }
+            heap[i] = v;
+            heapKey[i] = key;
+            heapIndex[v] = i;
+            return true;
+        }
+
+        long minKey() {
+            return heapSize == 0 ? Long.MAX_VALUE : heapKey[0];
+        }
+
+        int pop() {
+            int top = heap[0];
+            heapIndex[top] = -1;
+            settled[top] = true;
+            heapSize--;
+            if (heapSize > 0) {
+                int node = heap[heapSize];
+                long key = heapKey[heapSize];
+                int i = 0;
+                int half = heapSize >>> 1;
+                while (i < half) {
+                    int child = 2 * i + 1;
+                    if (child + 1 < heapSize && heapKey[child + 1] < heapKey[child]) {
+                        child++;
+                    }
+                    if (key <= heapKey[child]) {
+                        break;
+                    }
+                    heap[i] = heap[child];
+                    heapKey[i] = heapKey[child];
+                    heapIndex[heap[i]] = i;
+                    i = child;
+                }
+                heap[i] = node;
+                heapKey[i] = key;
+                heapIndex[node] = i;
+            }
+            return top;
+        }
+    }
+
+    private final RoadGraph graph;
+    private final Side forward;
+    private final Side backward;
+    private int settledCount;
+
+    public RouteSearch(RoadGraph graph) {
+        this.graph = graph;
+        forward = new Side(graph.nodeCount());
+        backward = new Side(graph.nodeCount());
+    }
+
+    // Shortest route, or null if the target cannot be reached. A* needs a bound that tracks
+    // road length reasonably well; one fast road between far-apart nodes can shrink it
+    // until A* explores more than the bidirectional search would.
+    Route route(int source, int target) {
+        return graph.hasCoordinates() && graph.kmPerUnit() >= MIN_GUIDANCE ? aStar(source, target) : bidirectional(source, target);
+    }
+
+    Route bidirectional(int source, int target) {
+        forward.reset();
+        backward.reset();
+        settledCount = 0;
+        forward.relax(source, 0, -1, 0);
+        backward.relax(target, 0, -1, 0);
+        long best = INF;
+        int meet = source == target ? source : -1;
+        if (meet != -1) {
+            best = 0;
+        }
+        // Once the two frontiers together are as long as the best path found, no shorter one is left
+        while (forward.heapSize > 0 && backward.heapSize > 0 && forward.minKey() + backward.minKey() < best) {
+            boolean fromSource = forward.minKey() <= backward.minKey();
+            Side side = fromSource ? forward : backward;
+            Side other = fromSource ? backward : forward;
+            int u = side.pop();
+            settledCount++;
+            int du = side.dist[u];
+            int[] offsets = fromSource ? graph.offsets : graph.revOffsets;
+            for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+                int w = graph.weights[fromSource ? i : graph.revEdges[i]];
+                if (w == INF) {
+                    continue;
+                }
+                int v = fromSource ? graph.targets[i] : graph.revSources[i];
+                int dv = du + w;
+                side.relax(v, dv, u, dv);
+                if (dv >= 0 && other.dist[v] != INF && (long) side.dist[v] + other.dist[v] < best) {
+                    best = (long) side.dist[v] + other.dist[v];
+                    meet = v;
+                }
+            }
+        }
+        if (meet == -1) {
+            return null;
+        }
+        // Forward parents lead back to the source, backward parents on to the target
+        int length = 1;
+        for (int x = meet; x != source; x = forward.parent[x]) {
+            length++;
+        }
+        for (int x = meet; x != target; x = backward.parent[x]) {
+            length++;
+        }
+        int[] nodes = new int[length];
+        int i = 0;
+        for (int x = meet; ; x = forward.parent[x]) {
+            nodes[i++] = x;
+            if (x == source) {
+                break;
+            }
+        }
+        reverse(nodes, 0, i);
+        for (int x = meet; x != target; ) {
+            x = backward.parent[x];
+            nodes[i++] = x;
+        }
+        return new Route(graph, nodes, (int) best);
+    }
+
+    Route aStar(int source, int target) {
+        forward.reset();
+        settledCount = 0;
+        forward.relax(source, 0, -1, graph.lowerBound(source, target));
+        while (forward.heapSize > 0) {
+            int u = forward.pop();
+            settledCount++;
+            if (u == target) {
+                return path(u, source);
+            }
+            int du = forward.dist[u];
+            for (int e = graph.offsets[u]; e < graph.offsets[u + 1]; e++) {
+                int w = graph.weights[e];
+                if (w != INF) {
+                    int v = graph.targets[e];
+                    int dv = du + w;
+                    if (dv >= 0 && dv < forward.dist[v]) {
+                        forward.relax(v, dv, u, (long) dv + graph.lowerBound(v, target));
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    // Nodes settled by the last query
+    int settledCount() {
+        return settledCount;
+    }
+
+    private Route path(int target, int source) {
+        int length = 1;
+        for (int x = target; x != source; x = forward.parent[x]) {
+            length++;
+        }
+        int[] nodes = new int[length];
+        int x = target;
+        for (int i = length - 1; i >= 0; i--) {
+            nodes[i] = x;
+            x = forward.parent[x];
+        }
+        return new Route(graph, nodes, forward.dist[target]);
+    }
+
+    private static void reverse(int[] a, int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+}
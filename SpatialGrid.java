@@ -0,0 +1,162 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+// Points (dense int ids with a latitude and longitude) bucketed into square cells of a
+// fixed size in degrees. Moving a point is O(1): it leaves one bucket and joins another.
+// A nearest query visits rings of cells outwards from the query point and stops once the
+// next ring cannot hold anything closer than the best match, so it touches a handful of
+// cells however many points there are. Meant for city-sized areas: longitude does not
+// wrap around. Thread-safe.
+public class SpatialGrid {
+    static final double DEFAULT_CELL_DEGREES = 0.01; // about 1.1 km north-south
+    private static final double KM_PER_DEGREE = 111.19;
+
+    private static final class Cell {
+        int[] ids = new int[4];
+        int size;
+    }
+
+    private final double cellDegrees;
+    private final Map<Long, Cell> cells = new HashMap<>();
+    private long[] cellOf = new long[16];   // key of the cell holding each id
+    private int[] indexInCell = new int[16]; // -1 if the id has no position
+    private double[] latitude = new double[16];
+    private double[] longitude = new double[16];
+    private int size;
+    // Bounds of every cell ever used, so a query over an empty area stops
+    private int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+
+    public SpatialGrid() {
+        this(DEFAULT_CELL_DEGREES);
+    }
+
+    public SpatialGrid(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+        Arrays.fill(indexInCell, -1);
+    }
+
+    // Places or moves a point
+    synchronized void put(int id, double lat, double lon) {
+        if (id >= indexInCell.length) {
+            int grown = Math.max(id + 1, indexInCell.length * 2);
+            cellOf = Arrays.copyOf(cellOf, grown);
+            latitude = Arrays.copyOf(latitude, grown);
+            longitude = Arrays.copyOf(longitude, grown);
+            int old = indexInCell.length;
+            indexInCell = Arrays.copyOf(indexInCell, grown);
+            Arrays.fill(indexInCell, old, grown, -1);
+        }
+        int x = cellX(lon);
+        int y = cellY(lat);
+        long key = key(x, y);
+        latitude[id] = lat;
+        longitude[id] = lon;
+        if (indexInCell[id] != -1) {
+            if (cellOf[id] == key) {
+                return;
+            }
+            unlink(id);
+        }
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            cell = new Cell();
+            cells.put(key, cell);
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        if (cell.size == cell.ids.length) {
+            cell.ids = Arrays.copyOf(cell.ids, cell.size * 2);
+        }
+        cellOf[id] = key;
+        indexInCell[id] = cell.size;
+        cell.ids[cell.size++] = id;
+        size++;
+    }
+
+    synchronized void remove(int id) {
+        if (id < indexInCell.length && indexInCell[id] != -1) {
+            unlink(id);
+        }
+    }
+
+    private void unlink(int id) {
+        Cell cell = cells.get(cellOf[id]);
+        int i = indexInCell[id];
+        int last = cell.ids[--cell.size];
+        cell.ids[i] = last;
+        indexInCell[last] = i;
+        indexInCell[id] = -1;
+        size--;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    // Closest point to (lat, lon) that `accept` agrees to, or -1 if there is none
+    synchronized int nearest(double lat, double lon, IntPredicate accept) {
+        if (size == 0) {
+            return -1;
+        }
+        int x0 = cellX(lon);
+        int y0 = cellY(lat);
+        int maxRing = Math.max(Math.max(x0 - minX, maxX - x0), Math.max(y0 - minY, maxY - y0));
+        int best = -1;
+        double bestKm = Double.MAX_VALUE;
+        // Rings that do not reach the occupied bounds yet are skipped outright
+        int firstRing = Math.max(0, Math.max(Math.max(minX - x0, x0 - maxX), Math.max(minY - y0, y0 - maxY)));
+        for (int r = firstRing; r <= maxRing; r++) {
+            // Everything in ring r is at least r - 1 whole cells away in one direction
+            double lonScale = Math.cos(Math.toRadians(Math.min(90, Math.abs(lat) + (r + 1) * cellDegrees)));
+            if (r > 1 && (r - 1) * cellDegrees * KM_PER_DEGREE * lonScale >= bestKm) {
+                break;
+            }
+            // Only the part of the ring inside the occupied bounds
+            int fromX = Math.max(x0 - r, minX);
+            int toX = Math.min(x0 + r, maxX);
+            for (int x = fromX; x <= toX; x++) {
+                boolean side = x == x0 - r || x == x0 + r;
+                int step = side || r == 0 ? 1 : 2 * r;
+                int fromY = side ? Math.max(y0 - r, minY) : y0 - r;
+                int toY = side ? Math.min(y0 + r, maxY) : y0 + r;
+                for (int y = fromY; y <= toY; y += step) {
+                    if (y < minY || y > maxY) {
+                        continue;
+                    }
+                    Cell cell = cells.get(key(x, y));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < cell.size; i++) {
+                        int id = cell.ids[i];
+                        if (!accept.test(id)) {
+                            continue;
+                        }
+                        double km = RoadGraph.haversineKm(lat, lon, latitude[id], longitude[id]);
+                        if (km < bestKm || (km == bestKm && id < best)) {
+                            best = id;
+                            bestKm = km;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private int cellX(double lon) {
+        return (int) Math.floor(lon / cellDegrees);
+    }
+
+    private int cellY(double lat) {
+        return (int) Math.floor(lat / cellDegrees);
+    }
+
+    private static long key(int x, int y) {
+        return (long) x << 32 | (y & 0xffffffffL);
+    }
+}
@@ -0,0 +1,233 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Maps injury types to doctors, per hospital and city-wide.
+// Specializations are split into lower-case word tokens ("Orthopedic Surgeon" ->
+// orthopedic, surgeon), and each token becomes a specialty id. An injury type is looked
+// up case-insensitively against every token, every token prefix of four letters or more
+// ("Cardio" -> cardiologist) and a few common injury words ("Head" -> neurosurgeon); the
+// words of a multi-word type ("Head injury") are looked up in place, so picking a doctor
+// for a call does not allocate. Doctors are kept in copy-on-write arrays per specialty,
+// so readers never lock.
+public class SpecializationIndex {
+    // Injury word -> token prefix it should reach
+    static final String[][] INJURY_SYNONYMS = {
+            {"head", "neuro"}, {"brain", "neuro"}, {"spine", "neuro"}, {"stroke", "neuro"},
+            {"cardiac", "cardio"}, {"heart", "cardio"}, {"chest", "cardio"},
+            {"bone", "ortho"}, {"fracture", "ortho"}, {"orthopaedic", "ortho"},
+            {"child", "pediatric"}, {"pregnancy", "gyn"}, {"maternity", "gyn"},
+            {"ear", "ent"}, {"nose", "ent"}, {"throat", "ent"},
+    };
+    private static final int MIN_PREFIX = 4;
+    private static final Doctor[] NONE = new Doctor[0];
+
+    private final NameIndex<int[]> specialtiesByKey = new NameIndex<>();
+    private final List<String> tokens = new ArrayList<>();
+    private volatile Doctor[][] cityWide = new Doctor[0][];
+    private final NameIndex<Doctor> doctorsByName = new NameIndex<>();
+
+    synchronized void doctorAdded(Doctor doctor) {
+        Hospital hospital = doctor.hospital;
+        for (String token : tokenize(doctor.specialization)) {
+            int specialty = specialty(token);
+            cityWide = withDoctor(cityWide, specialty, doctor);
+            hospital.doctorsBySpecialty = withDoctor(hospital.doctorsBySpecialty, specialty, doctor);
+        }
+        doctorsByName.put(doctor.name, doctor);
+    }
+
+    synchronized void hospitalRemoved(Hospital hospital) {
+        Doctor[][] updated = cityWide.clone();
+        for (int s = 0; s < updated.length; s++) {
+            List<Doctor> kept = new ArrayList<>();
+            for (Doctor d : updated[s]) {
+                if (d.hospital != hospital) {
+                    kept.add(d);
+                }
+            }
+            updated[s] = kept.toArray(NONE);
+        }
+        cityWide = updated;
+        for (Doctor d : hospital.doctors) {
+            if (doctorsByName.get(d.name) == d) {
+                doctorsByName.remove(d.name);
+            }
+        }
+    }
+
+    // Case-insensitive lookup by name
+    Doctor doctor(String name) {
+        return doctorsByName.get(name);
+    }
+
+    // Least-loaded on-shift doctor at the hospital for this injury, or null
+    Doctor bestDoctor(Hospital hospital, String injuryType) {
+        return best(hospital.doctorsBySpecialty, injuryType, false);
+    }
+
+    // A doctor at the hospital who is on shift and below capacity, or null
+    Doctor freeDoctor(Hospital hospital, String injuryType) {
+        return best(hospital.doctorsBySpecialty, injuryType, true);
+    }
+
+    // Every doctor in the city who can treat this injury
+    List<Doctor> doctors(String injuryType) {
+        List<Doctor> result = new ArrayList<>();
+        Doctor[][] table = cityWide;
+        for (int s : specialties(injuryType)) {
+            for (Doctor d : table[s]) {
+                if (!result.contains(d)) {
+                    result.add(d);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Specialty ids matching an injury type; empty if none
+    int[] specialties(String injuryType) {
+        if (injuryType == null) {
+            return new int[0];
+        }
+        int[] ids = specialtiesByKey.get(injuryType.trim());
+        if (ids != null) {
+            return ids;
+        }
+        // Several words, e.g. "Head injury": union of the words that match
+        int[] union = new int[0];
+        for (String word : tokenize(injuryType)) {
+            int[] found = specialtiesByKey.get(word);
+            if (found != null) {
+                for (int s : found) {
+                    union = addUnique(union, s);
+                }
+            }
+        }
+        return union;
+    }
+
+    // Best doctor over the specialties the injury type matches, as specialties() finds them,
+    // but scanning the type's words in place instead of collecting their ids
+    private Doctor best(Doctor[][] table, String injuryType, boolean freeOnly) {
+        if (injuryType == null) {
+            return null;
+        }
+        int start = 0;
+        int end = injuryType.length();
+        while (start < end && Character.isWhitespace(injuryType.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(injuryType.charAt(end - 1))) {
+            end--;
+        }
+        int[] ids = specialtiesByKey.get(injuryType, start, end);
+        if (ids != null) {
+            return best(table, ids, freeOnly);
+        }
+        Doctor best = null;
+        for (int i = start; i < end; ) {
+            if (!Character.isLetter(injuryType.charAt(i))) {
+                i++;
+                continue;
+            }
+            int wordEnd = i + 1;
+            while (wordEnd < end && Character.isLetter(injuryType.charAt(wordEnd))) {
+                wordEnd++;
+            }
+            int[] found = specialtiesByKey.get(injuryType, i, wordEnd);
+            if (found != null) {
+                Doctor d = best(table, found, freeOnly);
+                if (d != null && (best == null || d.load.get() < best.load.get())) {
+                    best = d;
+                }
+            }
+            i = wordEnd;
+        }
+        return best;
+    }
+
+    private static Doctor best(Doctor[][] table, int[] specialties, boolean freeOnly) {
+        Doctor best = null;
+        for (int s : specialties) {
+            if (s >= table.length) {
+                continue;
+            }
+            for (Doctor d : table[s]) {
+                if (!d.onShift || (freeOnly && !d.isFree())) {
+                    continue;
+                }
+                if (best == null || d.load.get() < best.load.get()) {
+                    best = d;
+                }
+            }
+        }
+        return best;
+    }
+
+    // Id of a token, registering it and its lookup keys on first sight
+    private int specialty(String token) {
+        int id = tokens.indexOf(token);
+        if (id != -1) {
+            return id;
+        }
+        id = tokens.size();
+        tokens.add(token);
+        addKey(token, id);
+        for (int len = MIN_PREFIX; len < token.length(); len++) {
+            addKey(token.substring(0, len), id);
+        }
+        for (String[] synonym : INJURY_SYNONYMS) {
+            if (token.startsWith(synonym[1])) {
+                addKey(synonym[0], id);
+            }
+        }
+        return id;
+    }
+
+    private void addKey(String key, int specialty) {
+        int[] ids = specialtiesByKey.get(key);
+        specialtiesByKey.put(key, addUnique(ids == null ? new int[0] : ids, specialty));
+    }
+
+    private static int[] addUnique(int[] ids, int id) {
+        for (int existing : ids) {
+            if (existing == id) {
+                return ids;
+            }
+        }
+        int[] grown = Arrays.copyOf(ids, ids.length + 1);
+        grown[ids.length] = id;
+        return grown;
+    }
+
+    private static Doctor[][] withDoctor(Doctor[][] table, int specialty, Doctor doctor) {
+        Doctor[][] updated = Arrays.copyOf(table, Math.max(table.length, specialty + 1));
+        for (int s = table.length; s < updated.length; s++) {
+            updated[s] = NONE;
+        }
+        Doctor[] list = updated[specialty];
+        for (Doctor d : list) {
+            if (d == doctor) {
+                return table;
+            }
+        }
+        Doctor[] grown = Arrays.copyOf(list, list.length + 1);
+        grown[list.length] = doctor;
+        updated[specialty] = grown;
+        return updated;
+    }
+
+    private static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        for (String word : text.toLowerCase().split("[^\\p{L}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+}
@@ -0,0 +1,165 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+// A made-up city for load and capacity tests, fully determined by its seed: a square grid of
+// two-way roads (random 1-9 km) with a sprinkling of longer arterials, node coordinates laid out
+// around Chandigarh, and hospitals on distinct nodes, each with the same number of units and one
+// doctor per specialization. Calls come from Calls, a Poisson arrival stream over the same city.
+public class SyntheticCity {
+    static final String[] SPECIALIZATIONS = {"Neurosurgeon", "Cardiologist", "Orthopedic Surgeon", "General Physician"};
+    static final String[] INJURIES = {"Neuro", "Cardio", "Orthopedic", "General"};
+    static final double ORIGIN_LATITUDE = 30.70;
+    static final double ORIGIN_LONGITUDE = 76.70;
+    static final double NODE_SPACING_KM = 0.5;
+
+    final long seed;
+    final int side;
+    final RoadGraph roads;
+    final HospitalBST hospitals;
+
+    SyntheticCity(long seed, int side, int hospitalCount, int unitsPerHospital) {
+        if (hospitalCount > side * side) {
+            throw new IllegalArgumentException(hospitalCount + " hospitals do not fit on " + side * side + " nodes");
+        }
+        Random random = new Random(seed);
+        this.seed = seed;
+        this.side = side;
+        this.roads = roads(side, random);
+        this.hospitals = hospitals(hospitalCount, unitsPerHospital, roads, random);
+        double[] latitude = new double[roads.nodeCount()];
+        double[] longitude = new double[roads.nodeCount()];
+        double degreesNorth = NODE_SPACING_KM / 111.19;
+        double degreesEast = degreesNorth / Math.cos(Math.toRadians(ORIGIN_LATITUDE));
+        for (int i = 0; i < side * side; i++) {
+            int node = roads.id("n" + i);
+            latitude[node] = ORIGIN_LATITUDE + (i / side) * degreesNorth;
+            longitude[node] = ORIGIN_LONGITUDE + (i % side) * degreesEast;
+        }
+        roads.setCoordinates(latitude, longitude);
+    }
+
+    // Call stream over this city; the same seed always yields the same calls
+    Calls calls(double perSecond, double[] severityMix) {
+        return new Calls(roads, seed + 1, perSecond, severityMix);
+    }
+
+    // Two-way grid roads named n0..n(side*side-1) with random 1-9 km lengths plus a sprinkling of faster arterials
+    static RoadGraph roads(int side, Random random) {
+        Map<String, Map<String, Integer>> map = new HashMap<>();
+        for (int i = 0; i < side * side; i++) {
+            map.put("n" + i, new HashMap<>());
+        }
+        for (int r = 0; r < side; r++) {
+            for (int c = 0; c < side; c++) {
+                int id = r * side + c;
+                if (c + 1 < side) {
+                    road(map, id, id + 1, 1 + random.nextInt(9));
+                }
+                if (r + 1 < side) {
+                    road(map, id, id + side, 1 + random.nextInt(9));
+                }
+            }
+        }
+        for (int i = 0; i < side; i++) {
+            int a = random.nextInt(side * side);
+            int b = random.nextInt(side * side);
+            if (a != b) {
+                road(map, a, b, 5 + random.nextInt(20));
+            }
+        }
+        return RoadGraph.compile(map);
+    }
+
+    private static void road(Map<String, Map<String, Integer>> map, int a, int b, int km) {
+        map.get("n" + a).put("n" + b, km);
+        map.get("n" + b).put("n" + a, km);
+    }
+
+    // Hospitals with ids 0..count-1 inserted in random order, units "H<id>U<n>" and one doctor per
+    // specialization each; on distinct nodes of the graph, or named "Hospital <id>" without one
+    static HospitalBST hospitals(int count, int unitsPerHospital, RoadGraph graph, Random random) {
+        int[] order = new int[count];
+        for (int h = 0; h < count; h++) {
+            order[h] = h;
+        }
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+        int[] nodes = graph == null ? null : distinctNodes(graph.nodeCount(), count, random);
+        HospitalBST tree = new HospitalBST();
+        for (int h : order) {
+            Hospital hospital = new Hospital(h, graph == null ? "Hospital " + h : graph.name(nodes[h]));
+            for (int u = 0; u < unitsPerHospital; u++) {
+                hospital.addAmbulance("H" + h + "U" + u);
+            }
+            for (String specialization : SPECIALIZATIONS) {
+                hospital.addDoctor("Dr " + h + " " + specialization, specialization);
+            }
+            tree.insert(hospital);
+        }
+        return tree;
+    }
+
+    private static int[] distinctNodes(int nodeCount, int count, Random random) {
+        int[] all = new int[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            all[i] = i;
+        }
+        for (int i = 0; i < count; i++) {
+            int j = i + random.nextInt(nodeCount - i);
+            int t = all[i];
+            all[i] = all[j];
+            all[j] = t;
+        }
+        return all;
+    }
+
+    // Emergency calls arriving as a Poisson process: exponential gaps at the given mean rate,
+    // a uniformly random location, severity drawn from the mix and a random injury type
+    static class Calls {
+        private final RoadGraph roads;
+        private final Random random;
+        private final double meanGapNanos;
+        private final double[] cumulative; // running sum of the severity mix, severity 1 first
+        private long atNanos;
+        private int count;
+
+        Calls(RoadGraph roads, long seed, double perSecond, double[] severityMix) {
+            this.roads = roads;
+            this.random = new Random(seed);
+            this.meanGapNanos = 1e9 / perSecond;
+            this.cumulative = new double[severityMix.length];
+            double total = 0;
+            for (double share : severityMix) {
+                total += share;
+            }
+            double sum = 0;
+            for (int i = 0; i < severityMix.length; i++) {
+                sum += severityMix[i] / total;
+                cumulative[i] = sum;
+            }
+        }
+
+        // Arrival time of the next call, in nanoseconds from the start of the stream
+        long nextArrival() {
+            atNanos += (long) (-Math.log(1 - random.nextDouble()) * meanGapNanos);
+            return atNanos;
+        }
+
+        // The call arriving at the time nextArrival() just returned
+        Patient nextPatient() {
+            String area = roads.name(random.nextInt(roads.nodeCount()));
+            double pick = random.nextDouble();
+            int severity = 1;
+            while (severity < cumulative.length && pick >= cumulative[severity - 1]) {
+                severity++;
+            }
+            String injury = INJURIES[random.nextInt(INJURIES.length)];
+            return new Patient("C" + count++, area, severity, "Synthetic call", injury);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.util.Arrays;
+
+// Live travel cost of every road, layered over its length.
+// A road's weight in the RoadGraph becomes length x congestion x the road's time-of-day
+// factor, or "closed" (DijkstraSearch.INF). Each change is pushed into the graph as a
+// single edge update, so the nearest-hospital table repairs only what it affects; a new
+// hour that changes many roads at once goes through as one bulk update instead.
+public class TrafficModel {
+    // Above this share of roads changed by one call, a bulk update beats edge-by-edge repair
+    static final double BULK_SHARE = 0.05;
+
+    private final RoadGraph graph;
+    private final int[] length;         // km per edge, as loaded or set by an admin
+    private final float[] congestion;   // 1 = free flow
+    private final boolean[] closed;
+    private final float[][] profile;    // per edge: 24 hourly factors, or null for none
+    private int hour = -1;              // hour the profiles were last applied for, -1 before any
+
+    public TrafficModel(RoadGraph graph) {
+        this.graph = graph;
+        int m = graph.edgeCount();
+        length = Arrays.copyOf(graph.weights, m);
+        congestion = new float[m];
+        Arrays.fill(congestion, 1f);
+        closed = new boolean[m];
+        profile = new float[m][];
+        for (int e = 0; e < m; e++) {
+            if (length[e] == DijkstraSearch.INF) {
+                closed[e] = true; // INF in the source map meant "no passage"
+                length[e] = 0;
+            }
+        }
+    }
+
+    // Congestion multiplier for a road, e.g. 2.5 while it crawls; false if there is no such road
+    boolean setCongestion(String from, String to, double multiplier) {
+        int e = edge(from, to);
+        if (e == -1 || multiplier <= 0) {
+            return false;
+        }
+        synchronized (this) {
+            congestion[e] = (float) multiplier;
+            apply(e);
+        }
+        return true;
+    }
+
+    boolean close(String from, String to) {
+        return setClosed(edge(from, to), true);
+    }
+
+    boolean reopen(String from, String to) {
+        return setClosed(edge(from, to), false);
+    }
+
+    // New length in km, e.g. after a survey or a diversion
+    boolean setLength(String from, String to, int km) {
+        int e = edge(from, to);
+        if (e == -1 || km <= 0) {
+            return false;
+        }
+        synchronized (this) {
+            length[e] = km;
+            apply(e);
+        }
+        return true;
+    }
+
+    // Hourly factors (24 values, index = hour of day) for a road; null removes the profile
+    boolean setProfile(String from, String to, double[] hourly) {
+        int e = edge(from, to);
+        if (e == -1 || (hourly != null && hourly.length != 24)) {
+            return false;
+        }
+        synchronized (this) {
+            if (hourly == null) {
+                profile[e] = null;
+            } else {
+                profile[e] = new float[24];
+                for (int h = 0; h < 24; h++) {
+                    profile[e][h] = (float) hourly[h];
+                }
+            }
+            apply(e);
+        }
+        return true;
+    }
+
+    // Moves every profiled road to the given hour of day (0-23)
+    synchronized void applyHour(int hourOfDay) {
+        hour = hourOfDay;
+        int m = length.length;
+        int[] edges = new int[64];
+        int[] weights = new int[64];
+        int count = 0;
+        for (int e = 0; e < m; e++) {
+            if (profile[e] == null) {
+                continue;
+            }
+            int w = weight(e);
+            if (w != graph.weights[e]) {
+                if (count == edges.length) {
+                    edges = Arrays.copyOf(edges, count * 2);
+                    weights = Arrays.copyOf(weights, count * 2);
+                }
+                edges[count] = e;
+                weights[count] = w;
+                count++;
+            }
+        }
+        if (count > m * BULK_SHARE) {
+            graph.setEdgeWeights(edges, weights, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                graph.setEdgeWeight(edges[i], weights[i]);
+            }
+        }
+    }
+
+    int hour() {
+        return hour;
+    }
+
+    double congestion(String from, String to) {
+        int e = edge(from, to);
+        return e == -1 ? 1 : congestion[e];
+    }
+
+    boolean isClosed(String from, String to) {
+        int e = edge(from, to);
+        return e != -1 && closed[e];
+    }
+
+    private boolean setClosed(int e, boolean close) {
+        if (e == -1) {
+            return false;
+        }
+        synchronized (this) {
+            closed[e] = close;
+            apply(e);
+        }
+        return true;
+    }
+
+    private void apply(int e) {
+        int w = weight(e);
+        if (w != graph.weights[e]) {
+            graph.setEdgeWeight(e, w);
+        }
+    }
+
+    // Current cost of edge e; never below 1 so a jam-free road is not free
+    private int weight(int e) {
+        if (closed[e]) {
+            return DijkstraSearch.INF;
+        }
+        double factor = congestion[e];
+        if (profile[e] != null && hour != -1) {
+            factor *= profile[e][hour];
+        }
+        double w = Math.ceil(length[e] * factor);
+        return w >= DijkstraSearch.INF ? DijkstraSearch.INF - 1 : Math.max(1, (int) w);
+    }
+
+    private int edge(String from, String to) {
+        int u = graph.id(from);
+        int v = graph.id(to);
+        return u == -1 || v == -1 ? -1 : graph.edge(u, v);
+    }
+}
@@ -0,0 +1,6 @@
+// Who is working a DispatchService session; DispatchService.Operation lists what each role may do
+public enum UserRole {
+    DISPATCHER,
+    ADMIN,
+    HOSPITAL_STAFF
+}
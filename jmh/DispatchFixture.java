@@ -0,0 +1,35 @@
+import benchmarks.HotPath;
+import java.util.Random;
+
+public class DispatchFixture implements HotPath.Dispatch {
+    private AmbulanceLifecycle.SimulatedScheduler clock;
+    private DispatchService service;
+    private DispatchService.Session session;
+    private final Patient[] patients = new Patient[1024];
+
+    @Override
+    public void build(int nodes, int hospitals) {
+        RoadGraph graph = SyntheticCity.roads((int) Math.round(Math.sqrt(nodes)), new Random(42));
+        Random random = new Random(17);
+        HospitalBST tree = SyntheticCity.hospitals(hospitals, HotPath.UNITS_PER_HOSPITAL, graph, random);
+        clock = new AmbulanceLifecycle.SimulatedScheduler(0);
+        service = new DispatchService(tree, graph, AmbulanceLifecycle.simulated(clock, 1), null);
+        session = service.openSession(UserRole.DISPATCHER);
+        for (int i = 0; i < patients.length; i++) {
+            patients[i] = new Patient("P" + i, graph.name(random.nextInt(graph.nodeCount())), 1 + random.nextInt(3),
+                    "", SyntheticCity.INJURIES[random.nextInt(SyntheticCity.INJURIES.length)]);
+        }
+    }
+
+    @Override
+    public int requestAmbulance(int i) {
+        DispatchService.Result<Dispatcher.Assignment> result = session.requestAmbulance(patients[i & 1023]);
+        clock.advance(10);
+        return result.status.ordinal();
+    }
+
+    @Override
+    public void shutdown() {
+        service.shutdown();
+    }
+}
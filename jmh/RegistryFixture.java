@@ -0,0 +1,70 @@
+import benchmarks.HotPath;
+import java.util.Random;
+
+public class RegistryFixture implements HotPath.Registry {
+    private HospitalBST tree;
+    private final int[] ids = new int[1024];
+    private final String[] unitIds = new String[1024];
+    private final Hospital[] picks = new Hospital[1024];
+    private final String[] injuries = new String[1024];
+    // Hospitals without units for the insert case, so only the tree and name index are timed
+    private Hospital[] bare;
+    private HospitalBST filling = new HospitalBST();
+
+    @Override
+    public void build(int hospitals) {
+        Random random = new Random(11);
+        tree = SyntheticCity.hospitals(hospitals, HotPath.UNITS_PER_HOSPITAL, null, random);
+        for (int i = 0; i < ids.length; i++) {
+            int h = random.nextInt(hospitals);
+            ids[i] = h;
+            unitIds[i] = "H" + h + "U" + random.nextInt(HotPath.UNITS_PER_HOSPITAL);
+            picks[i] = tree.search(h);
+            injuries[i] = SyntheticCity.INJURIES[random.nextInt(SyntheticCity.INJURIES.length)];
+        }
+        bare = new Hospital[hospitals];
+        for (int h = 0; h < hospitals; h++) {
+            bare[h] = new Hospital(h, "bare" + h);
+        }
+        for (int i = bare.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Hospital t = bare[i];
+            bare[i] = bare[j];
+            bare[j] = t;
+        }
+    }
+
+    @Override
+    public int insert(int i) {
+        if (filling.size() == bare.length) {
+            filling = new HospitalBST();
+        }
+        filling.insert(bare[i % bare.length]);
+        return filling.size();
+    }
+
+    @Override
+    public int search(int i) {
+        return tree.search(ids[i & 1023]).locationId;
+    }
+
+    @Override
+    public int getSortedHospitals() {
+        return tree.getSortedHospitals().size();
+    }
+
+    @Override
+    public int findAmbulanceById(int i) {
+        return tree.registry.ambulance(unitIds[i & 1023]).slot;
+    }
+
+    @Override
+    public int getAssignedDoctor(int i) {
+        Doctor doctor = picks[i & 1023].getAssignedDoctor(injuries[i & 1023]);
+        if (doctor == null) {
+            return 0;
+        }
+        doctor.discharge(); // No trip here to hand the patient over, so load stays level
+        return 1;
+    }
+}
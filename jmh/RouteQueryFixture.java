@@ -0,0 +1,58 @@
+import benchmarks.HotPath;
+import java.util.Random;
+
+public class RouteQueryFixture implements HotPath.RouteQuery {
+    private static final int PAIRS = 1024;
+
+    private RoadGraph graph;
+    private ContractionHierarchy hierarchy;
+    private DijkstraSearch dijkstra;
+    private RouteSearch routes;
+    private final int[] sources = new int[PAIRS];
+    private final int[] targets = new int[PAIRS];
+
+    @Override
+    public void build(int nodes) {
+        graph = SyntheticCity.roads((int) Math.round(Math.sqrt(nodes)), new Random(42));
+        hierarchy = ContractionHierarchy.build(graph);
+        dijkstra = new DijkstraSearch(graph, false);
+        routes = new RouteSearch(graph);
+        Random random = new Random(7);
+        for (int i = 0; i < PAIRS; i++) {
+            sources[i] = random.nextInt(graph.nodeCount());
+            targets[i] = random.nextInt(graph.nodeCount());
+        }
+        // The three must agree, or the faster ones are not answering the same question
+        for (int i = 0; i < PAIRS; i++) {
+            int expected = dijkstra(i);
+            if (routeSearch(i) != expected || hierarchy(i) != expected) {
+                throw new IllegalStateException("Routes disagree from node " + sources[i] + " to " + targets[i]);
+            }
+        }
+    }
+
+    @Override
+    public int dijkstra(int i) {
+        int source = sources[i & (PAIRS - 1)];
+        int target = targets[i & (PAIRS - 1)];
+        dijkstra.start(source);
+        for (int u; (u = dijkstra.next()) != -1 && u != target; ) {
+            // stop once the target is settled
+        }
+        return dijkstra.distance(target);
+    }
+
+    @Override
+    public int routeSearch(int i) {
+        return cost(routes.route(sources[i & (PAIRS - 1)], targets[i & (PAIRS - 1)]));
+    }
+
+    @Override
+    public int hierarchy(int i) {
+        return cost(hierarchy.route(sources[i & (PAIRS - 1)], targets[i & (PAIRS - 1)]));
+    }
+
+    private static int cost(Route route) {
+        return route == null ? DijkstraSearch.INF : route.cost;
+    }
+}
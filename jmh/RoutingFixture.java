@@ -0,0 +1,40 @@
+import benchmarks.HotPath;
+import java.util.Random;
+
+public class RoutingFixture implements HotPath.Routing {
+    // Few enough that a cache holding all of them fits the benchmark heap at 10^6 nodes (1 GB)
+    private static final int SOURCES = 256;
+
+    private RoadGraph graph;
+    private DistanceCache cache;
+    private final int[] sources = new int[SOURCES];
+
+    @Override
+    public void build(int nodes) {
+        graph = SyntheticCity.roads((int) Math.round(Math.sqrt(nodes)), new Random(42));
+        Random random = new Random(13);
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = random.nextInt(graph.nodeCount());
+        }
+        long entryBytes = 4L * graph.nodeCount() + 64; // as DistanceCache counts an entry
+        cache = new DistanceCache(graph, false, SOURCES * entryBytes, 0);
+        for (int source : sources) {
+            cache.distances(source);
+        }
+        if (cache.evictions() != 0) {
+            throw new IllegalStateException("Distance cache cannot hold all " + SOURCES + " sources");
+        }
+    }
+
+    @Override
+    public int search(int i) {
+        DijkstraSearch search = graph.forwardSearch();
+        search.run(sources[i & (SOURCES - 1)]);
+        return search.settledCount();
+    }
+
+    @Override
+    public int cacheHit(int i) {
+        return cache.distances(sources[i & (SOURCES - 1)]).length;
+    }
+}
@@ -0,0 +1,53 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// requestAmbulance as the console makes it. Trips run on a simulated clock with 1 ms legs that is
+// moved on after each call, so no travel time is waited out and units come back into service.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class DispatchHotPath {
+    // nodes/hospitals; every hospital needs a node of its own
+    @Param({"1000/10", "1000/100", "1000/1000",
+            "10000/10", "10000/100", "10000/1000", "10000/10000",
+            "100000/10", "100000/100", "100000/1000", "100000/10000",
+            "1000000/10", "1000000/100", "1000000/1000", "1000000/10000"})
+    String city;
+
+    private HotPath.Dispatch dispatch;
+    private int i;
+
+    @Setup(Level.Trial)
+    public void build() {
+        String[] size = city.split("/");
+        dispatch = HotPath.load("DispatchFixture", HotPath.Dispatch.class);
+        dispatch.build(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        dispatch.shutdown();
+    }
+
+    @Benchmark
+    public int requestAmbulance() {
+        return dispatch.requestAmbulance(i++);
+    }
+}
@@ -0,0 +1,65 @@
+package benchmarks;
+
+// JMH only generates benchmarks for classes in a package, and code in a package cannot name the
+// application's default-package classes. So each benchmark drives the application through one
+// of these interfaces, implemented by a default-package fixture in jmh/ and loaded by name once
+// per trial; the measured calls are plain interface calls.
+public interface HotPath {
+    int UNITS_PER_HOSPITAL = 4;
+
+    // One-to-all distances on a grid city of about `nodes` nodes, from one of a fixed set of sources
+    interface Routing {
+        void build(int nodes);
+
+        // A full Dijkstra search, not going through any distance cache
+        int search(int i);
+
+        // A lookup in a distance cache that holds every source
+        int cacheHit(int i);
+    }
+
+    // Shortest route between a pair of nodes on a grid city of about `nodes` nodes, three ways
+    interface RouteQuery {
+        void build(int nodes);
+
+        // DijkstraSearch from the source, stopped once the target is settled
+        int dijkstra(int i);
+
+        // RouteSearch: A* both ways where the graph has coordinates, else bidirectional Dijkstra
+        int routeSearch(int i);
+
+        int hierarchy(int i);
+    }
+
+    // Tree and registry lookups over `hospitals` hospitals; they do not depend on the road graph
+    interface Registry {
+        void build(int hospitals);
+
+        int insert(int i);
+
+        int search(int i);
+
+        int getSortedHospitals();
+
+        int findAmbulanceById(int i);
+
+        int getAssignedDoctor(int i);
+    }
+
+    // Single calls through a DispatchService session on a simulated clock
+    interface Dispatch {
+        void build(int nodes, int hospitals);
+
+        int requestAmbulance(int i);
+
+        void shutdown();
+    }
+
+    static <T> T load(String fixture, Class<T> type) {
+        try {
+            return type.cast(Class.forName(fixture).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Fixture " + fixture + " is not on the classpath", e);
+        }
+    }
+}
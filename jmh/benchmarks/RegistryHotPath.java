@@ -0,0 +1,62 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// HospitalBST and registry lookups per hospital count
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryHotPath {
+    @Param({"10", "100", "1000", "10000"})
+    int hospitals;
+
+    private HotPath.Registry registry;
+    private int i;
+
+    @Setup(Level.Trial)
+    public void build() {
+        registry = HotPath.load("RegistryFixture", HotPath.Registry.class);
+        registry.build(hospitals);
+    }
+
+    // Into fresh trees in random id order, starting over once a tree holds every hospital
+    @Benchmark
+    public int insert() {
+        return registry.insert(i++);
+    }
+
+    @Benchmark
+    public int search() {
+        return registry.search(i++);
+    }
+
+    @Benchmark
+    public int getSortedHospitals() {
+        return registry.getSortedHospitals();
+    }
+
+    @Benchmark
+    public int findAmbulanceById() {
+        return registry.findAmbulanceById(i++);
+    }
+
+    @Benchmark
+    public int getAssignedDoctor() {
+        return registry.getAssignedDoctor(i++);
+    }
+}
@@ -0,0 +1,53 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Point-to-point routes over 1024 random node pairs: ContractionHierarchy.route against
+// RouteSearch.route and a DijkstraSearch stopped at the target. The hierarchy is built once per
+// trial, outside the measurement, and setup checks that all three agree on every pair.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class RouteQueryHotPath {
+    @Param({"1000", "10000", "100000"})
+    int nodes;
+
+    private HotPath.RouteQuery routes;
+    private int i;
+
+    @Setup(Level.Trial)
+    public void build() {
+        routes = HotPath.load("RouteQueryFixture", HotPath.RouteQuery.class);
+        routes.build(nodes);
+    }
+
+    @Benchmark
+    public int dijkstra() {
+        return routes.dijkstra(i++);
+    }
+
+    @Benchmark
+    public int routeSearch() {
+        return routes.routeSearch(i++);
+    }
+
+    @Benchmark
+    public int hierarchy() {
+        return routes.hierarchy(i++);
+    }
+}
@@ -0,0 +1,49 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One-to-all distances from a rotating set of sources, two ways. search runs a full Dijkstra
+// search each time. cacheHit asks a distance cache sized to hold every source, so after setup
+// each call is a hit. The graph's own cache (DistanceCache.DEFAULT_MAX_BYTES) is not used: from
+// 10^4 nodes up it holds fewer arrays than there are sources and would miss on every call.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class RoutingHotPath {
+    @Param({"1000", "10000", "100000", "1000000"})
+    int nodes;
+
+    private HotPath.Routing routing;
+    private int i;
+
+    @Setup(Level.Trial)
+    public void build() {
+        routing = HotPath.load("RoutingFixture", HotPath.Routing.class);
+        routing.build(nodes);
+    }
+
+    @Benchmark
+    public int search() {
+        return routing.search(i++);
+    }
+
+    @Benchmark
+    public int cacheHit() {
+        return routing.cacheHit(i++);
+    }
+}